@@ -0,0 +1,27 @@
+package cn.hadoop.liuyu.project;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * @function benchmarks.jar 的入口：没有参数时运行所有基准测试并打开 GC profiler，
+ * 报告每秒操作数（ops/s）和每次操作分配的字节数（gc.alloc.rate.norm）；有参数时与 JMH 的命令行相同
+ *
+ */
+public class CrimeBenchmarks {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		Options options = new OptionsBuilder()
+				.include(CrimeBenchmarks.class.getPackage().getName() + ".*Benchmark")
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
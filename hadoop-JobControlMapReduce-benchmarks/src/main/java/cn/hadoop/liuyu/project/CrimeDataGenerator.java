@@ -0,0 +1,182 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ *
+ * @function 生成与 crime.csv 列布局完全相同的合成犯罪历史数据，同一个种子总是生成相同的数据
+ * 犯罪类别和犯罪区域按 Zipf 分布抽取（排在前面的值出现得最多，与真实数据中 LARCENY/THEFT 和 SOUTHERN 的倾斜相同），
+ * 日期在给定范围内均匀分布；描述字段包含带引号的逗号、转义的引号和很长的文本
+ *
+ */
+public class CrimeDataGenerator {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String[] CATEGORIES = { "LARCENY/THEFT", "OTHER OFFENSES", "NON-CRIMINAL", "ASSAULT",
+			"VEHICLE THEFT", "DRUG/NARCOTIC", "VANDALISM", "WARRANTS", "BURGLARY", "SUSPICIOUS OCC", "MISSING PERSON",
+			"ROBBERY", "FRAUD", "SECONDARY CODES", "FORGERY/COUNTERFEITING", "WEAPON LAWS", "TRESPASS", "PROSTITUTION",
+			"STOLEN PROPERTY", "DISORDERLY CONDUCT", "DRUNKENNESS", "RECOVERED VEHICLE", "KIDNAPPING",
+			"DRIVING UNDER THE INFLUENCE", "LIQUOR LAWS", "RUNAWAY", "ARSON", "EMBEZZLEMENT", "LOITERING",
+			"SUICIDE", "FAMILY OFFENSES", "BAD CHECKS", "BRIBERY", "EXTORTION", "SEX OFFENSES, NON FORCIBLE",
+			"GAMBLING", "PORNOGRAPHY/OBSCENE MAT", "TREA" };
+
+	private static final String[] DISTRICTS = { "SOUTHERN", "MISSION", "NORTHERN", "CENTRAL", "BAYVIEW",
+			"TENDERLOIN", "INGLESIDE", "TARAVAL", "PARK", "RICHMOND" };
+
+	private static final String[] DESCRIPTIONS = { "LOST PROPERTY", "BATTERY", "\"ROBBERY, BODILY FORCE\"",
+			"\"MALICIOUS MISCHIEF, VANDALISM OF VEHICLES\"", "\"DRIVERS LICENSE, SUSPENDED OR REVOKED\"",
+			"\"GRAND THEFT FROM LOCKED AUTO, WINDOW SMASHED, \"\"LAPTOP\"\" AND PERSONAL ITEMS TAKEN FROM TRUNK WHILE "
+					+ "VEHICLE WAS PARKED OVERNIGHT ON THE STREET NEAR THE INTERSECTION, NO WITNESSES, "
+					+ "NO SURVEILLANCE FOOTAGE AVAILABLE AT THE TIME OF THE REPORT\"" };
+
+	private static final String[] RESOLUTIONS = { "NONE", "\"ARREST, BOOKED\"", "\"ARREST, CITED\"", "UNFOUNDED",
+			"JUVENILE BOOKED" };
+
+	private static final String[] STREETS = { "MISSION ST", "MARKET ST", "BRYANT ST", "JONES ST", "ELLIS ST",
+			"LEAVENWORTH ST", "16TH ST", "3RD ST", "LOMBARD ST", "GEARY BL" };
+
+	private static final String[] DAYS_OF_WEEK = { "Monday", "Tuesday", "Wednesday", "Thursday", "Friday",
+			"Saturday", "Sunday" };
+
+	private final Random random;
+
+	private final int fromEpochDay;
+
+	private final int days;
+
+	private final double[] categoryCdf;
+
+	private final double[] districtCdf;
+
+	private final StringBuilder row = new StringBuilder(512);
+
+	private long incident = 100000000L;
+
+	/**
+	 * @param seed 随机数种子
+	 * @param from yyyymmdd 格式的起始日期（包含）
+	 * @param to yyyymmdd 格式的结束日期（包含）
+	 * @param skew Zipf 分布的指数，0 为均匀分布，越大越倾斜
+	 */
+	public CrimeDataGenerator(long seed, int from, int to, double skew) {
+		if (from > to) {
+			throw new IllegalArgumentException("from is after to");
+		}
+		random = new Random(seed);
+		fromEpochDay = CrimeDate.toEpochDay(from);
+		days = CrimeDate.toEpochDay(to) - fromEpochDay + 1;
+		categoryCdf = zipf(CATEGORIES.length, skew);
+		districtCdf = zipf(DISTRICTS.length, skew);
+	}
+
+	/**
+	 * @return 第 k 个值的累计概率与 1 / k^skew 成比例
+	 */
+	private static double[] zipf(int n, double skew) {
+		double[] retVal = new double[n];
+		double sum = 0;
+		for (int k = 0; k < n; k++) {
+			sum += 1.0 / Math.pow(k + 1, skew);
+			retVal[k] = sum;
+		}
+		for (int k = 0; k < n; k++) {
+			retVal[k] /= sum;
+		}
+		return retVal;
+	}
+
+	private int sample(double[] cdf) {
+		int i = Arrays.binarySearch(cdf, random.nextDouble());
+		return Math.min(cdf.length - 1, i >= 0 ? i : -i - 1);
+	}
+
+	/**
+	 * @function 写出文件头和 rows 行数据
+	 * @param out 输出流
+	 * @param rows 行数
+	 * @throws IOException
+	 */
+	public void generate(OutputStream out, long rows) throws IOException {
+		out.write(CrimeRows.HEADER.getBytes(UTF8));
+		out.write('\n');
+		for (long i = 0; i < rows; i++) {
+			out.write(nextRow().getBytes(UTF8));
+			out.write('\n');
+		}
+	}
+
+	/**
+	 * @return 下一行数据（不含换行符）
+	 */
+	public String nextRow() {
+		int epochDay = fromEpochDay + random.nextInt(days);
+		int date = CrimeDate.fromEpochDay(epochDay);
+		int minute = random.nextInt(24 * 60);
+		double x = -122.51 + random.nextDouble() * 0.14;
+		double y = 37.70 + random.nextDouble() * 0.11;
+		row.setLength(0);
+		row.append(incident++).append(',');
+		row.append(quote(CATEGORIES[sample(categoryCdf)])).append(',');
+		row.append(DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)]).append(',');
+		//1970-01-01 是礼拜四
+		row.append(DAYS_OF_WEEK[((epochDay + 3) % 7 + 7) % 7]).append(',');
+		appendTwoDigits(CrimeDate.month(date)).append('/');
+		appendTwoDigits(CrimeDate.dayOfMonth(date)).append('/');
+		row.append(CrimeDate.year(date)).append(" 12:00:00 AM,");
+		appendTwoDigits(minute / 60).append(':');
+		appendTwoDigits(minute % 60).append(',');
+		row.append(DISTRICTS[sample(districtCdf)]).append(',');
+		row.append(RESOLUTIONS[random.nextInt(RESOLUTIONS.length)]).append(',');
+		row.append(random.nextInt(30) * 100).append(" Block of ").append(STREETS[random.nextInt(STREETS.length)]).append(',');
+		row.append(x).append(',').append(y).append(',');
+		row.append("\"(").append(y).append(", ").append(x).append(")\",");
+		row.append(incident * 100000 + random.nextInt(100000));
+		return row.toString();
+	}
+
+	private static String quote(String value) {
+		return value.indexOf(',') >= 0 ? "\"" + value + "\"" : value;
+	}
+
+	private StringBuilder appendTwoDigits(int value) {
+		if (value < 10) {
+			row.append('0');
+		}
+		return row.append(value);
+	}
+
+	/**
+	 * @function 生成数据文件
+	 * @param args 输出文件 行数 [种子] [起始日期 yyyymmdd] [结束日期 yyyymmdd] [Zipf 指数]
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: CrimeDataGenerator path/to/crime.csv rows [seed] [from] [to] [skew]");
+			System.exit(1);
+		}
+		Path output = new Path(args[0]);
+		long rows = Long.parseLong(args[1]);
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+		int from = args.length > 3 ? Integer.parseInt(args[3]) : 20030101;
+		int to = args.length > 4 ? Integer.parseInt(args[4]) : 20151231;
+		double skew = args.length > 5 ? Double.parseDouble(args[5]) : 1.1;
+		FileSystem fs = output.getFileSystem(new Configuration());
+		OutputStream out = new BufferedOutputStream(fs.create(output, true), 1 << 20);
+		try {
+			new CrimeDataGenerator(seed, from, to, skew).generate(out, rows);
+		} finally {
+			out.close();
+		}
+	}
+}
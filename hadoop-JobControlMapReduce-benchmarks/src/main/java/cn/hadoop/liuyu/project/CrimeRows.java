@@ -0,0 +1,75 @@
+package cn.hadoop.liuyu.project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @function 基准测试使用的有代表性的犯罪历史数据行：带引号的字段、字段中的逗号、很长的描述，以及文件头
+ *
+ */
+public final class CrimeRows {
+
+	public static final String HEADER = "IncidntNum,Category,Descript,DayOfWeek,Date,Time,PdDistrict,Resolution,Address,X,Y,Location,PdId";
+
+	private static final String[] ROWS = {
+			"130227859,NON-CRIMINAL,LOST PROPERTY,Saturday,03/30/2013 07:00:00 AM +0000,12:00,TENDERLOIN,NONE,"
+					+ "JONES ST / ELLIS ST,-122.412784096502,37.7848656939526,\"(37.7848656939526, -122.412784096502)\",13022785971000",
+			"150098210,ROBBERY,\"ROBBERY, BODILY FORCE\",Sunday,02/01/2015 12:00:00 AM,15:45,TENDERLOIN,NONE,"
+					+ "300 Block of LEAVENWORTH ST,-122.414406029855,37.7841907151119,\"(37.7841907151119, -122.414406029855)\",15009821003074",
+			"150098226,VANDALISM,\"MALICIOUS MISCHIEF, VANDALISM OF VEHICLES\",Tuesday,01/27/2015 12:00:00 AM,19:00,NORTHERN,NONE,"
+					+ "LOMBARD ST / LAGUNA ST,-122.431118543788,37.8004687042875,\"(37.8004687042875, -122.431118543788)\",15009822628160",
+			"150098232,LARCENY/THEFT,\"GRAND THEFT FROM LOCKED AUTO, WINDOW SMASHED, \"\"LAPTOP\"\" AND PERSONAL ITEMS TAKEN FROM "
+					+ "TRUNK WHILE VEHICLE WAS PARKED OVERNIGHT ON THE STREET NEAR THE INTERSECTION, NO WITNESSES, "
+					+ "NO SURVEILLANCE FOOTAGE AVAILABLE AT THE TIME OF THE REPORT\",Sunday,02/01/2015 12:00:00 AM,18:30,SOUTHERN,NONE,"
+					+ "800 Block of BRYANT ST,-122.403404791479,37.7754207993706,\"(37.7754207993706, -122.403404791479)\",15009823206244",
+			"150098248,ASSAULT,BATTERY,Saturday,01/31/2015 12:00:00 AM,23:10,MISSION,\"ARREST, BOOKED\","
+					+ "16TH ST / MISSION ST,-122.419671780296,37.7650501214668,\"(37.7650501214668, -122.419671780296)\",15009824804134",
+			"150098265,OTHER OFFENSES,\"DRIVERS LICENSE, SUSPENDED OR REVOKED\",Sunday,02/01/2015 12:00:00 AM,01:05,BAYVIEW,\"ARREST, CITED\","
+					+ "3RD ST / GILMAN AV,-122.389880062097,37.7200155281657,\"(37.7200155281657, -122.389880062097)\",15009826565016" };
+
+	private CrimeRows() {
+	}
+
+	/**
+	 * @param n 行数
+	 * @return 循环使用样本行生成的 n 行数据，第一行为文件头
+	 */
+	public static String[] lines(int n) {
+		String[] retVal = new String[n];
+		retVal[0] = HEADER;
+		for (int i = 1; i < n; i++) {
+			retVal[i] = ROWS[i % ROWS.length];
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param n 行数
+	 * @return 与 lines 相同的数据，作为 map 的输入 value
+	 */
+	public static Text[] texts(int n) {
+		String[] lines = lines(n);
+		Text[] retVal = new Text[n];
+		for (int i = 0; i < n; i++) {
+			retVal[i] = new Text(lines[i]);
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param n 个数
+	 * @return 样本行中的日期字段，例如 02/01/2015 12:00:00 AM
+	 */
+	public static List<String> dates(int n) {
+		List<String> retVal = new ArrayList<String>(n);
+		CsvTokenizer tokenizer = new CsvTokenizer();
+		for (int i = 0; i < n; i++) {
+			tokenizer.tokenize(new Text(ROWS[i % ROWS.length]));
+			retVal.add(tokenizer.getString(MapReduceJobBase.DATE_COLUMN_INDEX));
+		}
+		return retVal;
+	}
+}
@@ -0,0 +1,77 @@
+package cn.hadoop.liuyu.project;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * @function 日期字段的解析开销：兼容旧接口的 MapReduceJobBase.getDate 与 mapper 使用的 CrimeDate
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DateBenchmark {
+
+	private static final int DATES = 1024;
+
+	private String[] dates;
+
+	private byte[][] bytes;
+
+	private int index = 0;
+
+	@Setup
+	public void setup() {
+		List<String> values = CrimeRows.dates(DATES);
+		dates = values.toArray(new String[DATES]);
+		bytes = new byte[DATES][];
+		for (int i = 0; i < DATES; i++) {
+			bytes[i] = dates[i].getBytes(Charset.forName("UTF-8"));
+		}
+	}
+
+	private int next() {
+		index = (index + 1) % DATES;
+		return index;
+	}
+
+	@Benchmark
+	public Date getDate() throws ParseException {
+		return MapReduceJobBase.getDate(dates[next()]);
+	}
+
+	@Benchmark
+	public int parseString() {
+		return CrimeDate.parse(dates[next()]);
+	}
+
+	@Benchmark
+	public int parseBytes() {
+		byte[] b = bytes[next()];
+		return CrimeDate.parse(b, 0, b.length);
+	}
+
+	@Benchmark
+	public int parseBytesAndBucket() {
+		byte[] b = bytes[next()];
+		return CrimeDate.weekBucket(CrimeDate.parse(b, 0, b.length));
+	}
+}
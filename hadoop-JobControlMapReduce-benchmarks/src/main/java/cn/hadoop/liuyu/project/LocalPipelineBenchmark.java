@@ -0,0 +1,169 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ *
+ * @function 不需要集群的端到端规模测试：生成合成数据，在本地模式下依次运行
+ * SanFranciscoCrime → SanFranciscoCrimePrepOlap → LoadStarDB（嵌入式 H2 数据库），
+ * 输出每个阶段的耗时、每秒处理的记录数和 shuffle 字节数
+ * 其他配置（reducer 个数、压缩、加载线程数等）通过 -D 传入
+ *
+ */
+public class LocalPipelineBenchmark extends Configured implements Tool {
+
+	/**
+	 * 嵌入式数据库的连接串，默认为内存中的 H2 数据库（MySQL 兼容模式）
+	 */
+	public static final String H2_URL = "jdbc:h2:mem:crime;DB_CLOSE_DELAY=-1;MODE=MySQL";
+
+	public static final String H2_DRIVER = "org.h2.Driver";
+
+	private static final String[] SCHEMA = {
+			"create table if not exists category (id int auto_increment primary key, name varchar(255) not null)",
+			"create table if not exists district (id int auto_increment primary key, name varchar(255) not null)",
+			"create table if not exists timeperiod (id int auto_increment primary key, year int, month int, week int, day int)",
+			"create table if not exists fact (id bigint auto_increment primary key, district_id int, category_id int,"
+					+ " time_id int, crimes int)" };
+
+	public int run(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: LocalPipelineBenchmark work/dir rows [seed] [from] [to] [skew]");
+			return 1;
+		}
+		Configuration conf = getConf();
+		conf.setIfUnset("mapreduce.framework.name", "local");
+		conf.setIfUnset("fs.defaultFS", "file:///");
+		conf.setIfUnset(LoadStarDB.JDBC_URL, H2_URL);
+		conf.setIfUnset(LoadStarDB.JDBC_DRIVER, H2_DRIVER);
+
+		Path work = new Path(args[0]);
+		long rows = Long.parseLong(args[1]);
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+		int from = args.length > 3 ? Integer.parseInt(args[3]) : 20030101;
+		int to = args.length > 4 ? Integer.parseInt(args[4]) : 20151231;
+		double skew = args.length > 5 ? Double.parseDouble(args[5]) : 1.1;
+
+		final FileSystem fs = work.getFileSystem(conf);
+		Path input = new Path(work, "crime-" + rows + "-" + seed + ".csv");
+		final Path out1 = new Path(work, "out1");
+		final Path out2 = new Path(work, "out2");
+		final Path out3 = new Path(work, "out3");
+		for (Path out : new Path[] { out1, out2, out3 }) {
+			if (fs.exists(out)) {
+				fs.delete(out, true);
+			}
+		}
+
+		long start = System.currentTimeMillis();
+		if (!fs.exists(input)) {
+			OutputStream out = new BufferedOutputStream(fs.create(input, true), 1 << 20);
+			try {
+				new CrimeDataGenerator(seed, from, to, skew).generate(out, rows);
+			} finally {
+				out.close();
+			}
+		}
+		long generated = System.currentTimeMillis() - start;
+
+		final String driver = conf.get(LoadStarDB.JDBC_DRIVER);
+		final String url = conf.get(LoadStarDB.JDBC_URL);
+		createSchema(driver, url);
+
+		final Configuration loaderConf = conf;
+		PipelineRunner runner = new PipelineRunner(1, 1, false);
+		PipelineRunner.JobStage reports = (PipelineRunner.JobStage) runner.add(
+				SanFranciscoCrime.reportStage(conf, new Path[] { input }, out1, out2));
+		PipelineRunner.JobStage olap = (PipelineRunner.JobStage) runner.add(
+				SanFranciscoCrimePrepOlap.olapStage(conf, new Path[] { input }, out1.toString(), out2.toString(), out3));
+		olap.dependsOn(reports);
+		PipelineRunner.Stage load = runner.add(new PipelineRunner.Stage("load") {
+			private volatile Counters counters = null;
+
+			@Override
+			protected boolean execute() throws Exception {
+				LoadStarDB loader = new LoadStarDB(out1.toString(), out2.toString(), driver, url, fs, false);
+				try {
+					loader.setBatchSize(loaderConf.getInt(LoadStarDB.BATCH_SIZE, LoadStarDB.DEFAULT_BATCH_SIZE));
+					loader.setThreads(loaderConf.getInt(LoadStarDB.THREADS, LoadStarDB.DEFAULT_THREADS));
+					loader.processData(out3.toString(), fs);
+					counters = loader.getCounters();
+				} finally {
+					loader.close();
+				}
+				return true;
+			}
+
+			@Override
+			public Counters getCounters() {
+				return counters;
+			}
+		}).dependsOn(olap);
+		boolean success = runner.run();
+
+		System.out.println(String.format("%-10s %12s %14s %14s %16s", "stage", "wall(ms)", "records", "records/s",
+				"shuffle bytes"));
+		System.out.println(String.format("%-10s %12d %14d %14s %16s", "generate", generated, rows,
+				rate(rows, generated), "-"));
+		printJob(reports);
+		printJob(olap);
+		Counters loaded = load.getCounters();
+		long facts = loaded == null ? 0 : loaded.findCounter(LoadStarDB.LoaderCounters.FACT_ROWS).getValue();
+		System.out.println(String.format("%-10s %12d %14d %14s %16s", load.getName(), load.getElapsed(), facts,
+				rate(facts, load.getElapsed()), "-"));
+		System.out.println();
+		System.out.println(runner.summary());
+		return success ? 0 : 1;
+	}
+
+	private static void createSchema(String driver, String url) throws ClassNotFoundException, SQLException {
+		Class.forName(driver);
+		Connection conn = DriverManager.getConnection(url);
+		try {
+			Statement s = conn.createStatement();
+			for (String sql : SCHEMA) {
+				s.execute(sql);
+			}
+			s.close();
+		} finally {
+			conn.close();
+		}
+	}
+
+	private static void printJob(PipelineRunner.JobStage stage) throws IOException {
+		Job job = stage.getJob();
+		long records = job == null ? 0 : counter(job, TaskCounter.MAP_INPUT_RECORDS);
+		long shuffle = job == null ? 0 : counter(job, TaskCounter.REDUCE_SHUFFLE_BYTES);
+		System.out.println(String.format("%-10s %12d %14d %14s %16d", stage.getName(), stage.getElapsed(), records,
+				rate(records, stage.getElapsed()), shuffle));
+	}
+
+	private static long counter(Job job, TaskCounter counter) throws IOException {
+		Counters counters = job.getCounters();
+		return counters == null ? 0 : counters.findCounter(counter).getValue();
+	}
+
+	private static String rate(long records, long millis) {
+		return millis <= 0 ? "-" : String.valueOf(records * 1000 / millis);
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.exit(ToolRunner.run(new Configuration(), new LocalPipelineBenchmark(), args));
+	}
+}
@@ -0,0 +1,72 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * @function 每行犯罪历史数据的解析开销：兼容旧接口的 DataFile.getColumns 与 mapper 使用的 CsvTokenizer
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+	private static final int ROWS = 1024;
+
+	private String[] lines;
+
+	private Text[] texts;
+
+	private CsvTokenizer tokenizer;
+
+	private CsvTokenizer projected;
+
+	private int row = 0;
+
+	@Setup
+	public void setup() {
+		lines = CrimeRows.lines(ROWS);
+		texts = CrimeRows.texts(ROWS);
+		tokenizer = new CsvTokenizer();
+		//与 CategoryAndDistrictMapByDate 相同的投影
+		projected = MapReduceJobBase.projectedTokenizer(MapReduceJobBase.CATEGORY_COLUMN_INDEX,
+				MapReduceJobBase.DATE_COLUMN_INDEX, MapReduceJobBase.DISTRICT_COLUMN_INDEX);
+	}
+
+	private int next() {
+		row = (row + 1) % ROWS;
+		return row;
+	}
+
+	@Benchmark
+	public String[] getColumns() throws IOException {
+		return DataFile.getColumns(lines[next()]);
+	}
+
+	@Benchmark
+	public int tokenize() {
+		return tokenizer.tokenize(texts[next()]);
+	}
+
+	@Benchmark
+	public int tokenizeProjected() {
+		return projected.tokenize(texts[next()]);
+	}
+}
@@ -0,0 +1,115 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * @function 每个 key 一次 reduce 调用的开销：报表 job 的 CrimeReportReducer 和 SanFranciscoCrimePrepOlap.Reduce
+ * values 为一个 key 从各个 map（combiner）收到的记录数，输出写入不做任何处理的上下文；
+ * CrimeReportReducer 通过 MultipleOutputs 输出，报表的命名输出使用 NullOutputFormat
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReduceBenchmark {
+
+	@Param({ "1", "16", "256" })
+	public int values;
+
+	/**
+	 * 只保留最后一条输出，防止输出被优化掉
+	 */
+	private static final class LastRecord implements ReducerContexts.Sink {
+
+		Object value;
+
+		public void write(Object key, Object value) {
+			this.value = value;
+		}
+	}
+
+	private final LastRecord sink = new LastRecord();
+
+	private SanFranciscoCrime.CrimeReportReducer report;
+
+	private Reducer<Text, WeekCountsWritable, Text, Text>.Context reportContext;
+
+	//key 的第一个字节为维度标记
+	private final Text category = new Text((char) SanFranciscoCrime.CATEGORY_TAG + "LARCENY/THEFT");
+
+	private List<WeekCountsWritable> weekCounts;
+
+	private SanFranciscoCrimePrepOlap.Reduce olap;
+
+	private Reducer<CrimeCellWritable, IntWritable, DayKeyWritable, Text>.Context olapContext;
+
+	private final CrimeCellWritable cell = new CrimeCellWritable();
+
+	private List<IntWritable> cellCounts;
+
+	@Setup
+	public void setup() throws IOException, InterruptedException {
+		Configuration conf = new Configuration(false);
+		Random random = new Random(42);
+
+		Job job = Job.getInstance(new Configuration(false));
+		MultipleOutputs.addNamedOutput(job, SanFranciscoCrime.CATEGORY_OUTPUT, NullOutputFormat.class, Text.class,
+				Text.class);
+		report = new SanFranciscoCrime.CrimeReportReducer();
+		reportContext = ReducerContexts.create(report, job.getConfiguration(), sink);
+		report.setup(reportContext);
+		weekCounts = new ArrayList<WeekCountsWritable>(values);
+		for (int i = 0; i < values; i++) {
+			WeekCountsWritable counts = new WeekCountsWritable();
+			counts.set(random.nextInt(WeekCountsWritable.REPORT_BUCKETS));
+			weekCounts.add(counts);
+		}
+
+		olap = new SanFranciscoCrimePrepOlap.Reduce();
+		olapContext = ReducerContexts.create(olap, conf, sink);
+		cell.set(20150201, 3, 7);
+		cellCounts = new ArrayList<IntWritable>(values);
+		for (int i = 0; i < values; i++) {
+			cellCounts.add(new IntWritable(1 + random.nextInt(5)));
+		}
+	}
+
+	@Benchmark
+	public Object crimeReportReducer() throws IOException, InterruptedException {
+		report.reduce(category, weekCounts, reportContext);
+		return report;
+	}
+
+	@Benchmark
+	public Object prepOlapReduce() throws IOException, InterruptedException {
+		olap.reduce(cell, cellCounts, olapContext);
+		return sink.value;
+	}
+}
@@ -0,0 +1,79 @@
+package cn.hadoop.liuyu.project;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.ReduceContext;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+
+/**
+ *
+ * @function 为基准测试创建不依赖集群的 Reducer.Context：ReduceContext 接口由动态代理实现，
+ * write 交给 Sink 处理，getConfiguration 返回给定的配置，getTaskAttemptID 返回固定的 reduce task，其他方法返回默认值
+ * MultipleOutputs 按 task 创建输出文件，需要 task id 和配置中的输出目录
+ *
+ */
+public final class ReducerContexts {
+
+	/**
+	 * 接收 reducer 输出的记录
+	 */
+	public interface Sink {
+		void write(Object key, Object value);
+	}
+
+	private static final TaskAttemptID TASK = new TaskAttemptID("bench", 1, TaskType.REDUCE, 0, 0);
+
+	private ReducerContexts() {
+	}
+
+	/**
+	 * @param reducer 要测试的 reducer，只用于确定 Context 的类型
+	 * @param conf task 的配置
+	 * @param sink 接收输出的记录
+	 * @return reducer 的上下文
+	 */
+	@SuppressWarnings("unchecked")
+	public static <KI, VI, KO, VO> Reducer<KI, VI, KO, VO>.Context create(Reducer<KI, VI, KO, VO> reducer,
+			final Configuration conf, final Sink sink) {
+		ReduceContext<KI, VI, KO, VO> context = (ReduceContext<KI, VI, KO, VO>) Proxy.newProxyInstance(
+				ReducerContexts.class.getClassLoader(), new Class<?>[] { ReduceContext.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("write".equals(name)) {
+							sink.write(args[0], args[1]);
+							return null;
+						}
+						if ("getConfiguration".equals(name)) {
+							return conf;
+						}
+						if ("getNumReduceTasks".equals(name)) {
+							return 1;
+						}
+						if ("getTaskAttemptID".equals(name)) {
+							return TASK;
+						}
+						return defaultValue(method.getReturnType());
+					}
+				});
+		return new WrappedReducer<KI, VI, KO, VO>().getReducerContext(context);
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		} else if (type == float.class) {
+			return 0f;
+		}
+		return null;
+	}
+}
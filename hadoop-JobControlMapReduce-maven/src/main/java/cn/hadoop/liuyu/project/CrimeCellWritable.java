@@ -0,0 +1,123 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ *
+ * @function OLAP 立方体中的一个单元格 (日期, 犯罪类别id, 犯罪区域id)，序列化为定长 12 个字节
+ * 按日期、犯罪类别、犯罪区域的顺序排序，排序时直接比较序列化后的字节
+ *
+ */
+public class CrimeCellWritable implements WritableComparable<CrimeCellWritable> {
+
+	private int day;
+
+	private int category;
+
+	private int district;
+
+	/**
+	 * @param day yyyymmdd 格式的日期
+	 * @param category 犯罪类别id
+	 * @param district 犯罪区域id
+	 */
+	public void set(int day, int category, int district) {
+		this.day = day;
+		this.category = category;
+		this.district = district;
+	}
+
+	/**
+	 * @return yyyymmdd 格式的日期
+	 */
+	public int getDay() {
+		return day;
+	}
+
+	/**
+	 * @return 犯罪类别id
+	 */
+	public int getCategory() {
+		return category;
+	}
+
+	/**
+	 * @return 犯罪区域id
+	 */
+	public int getDistrict() {
+		return district;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(day);
+		out.writeInt(category);
+		out.writeInt(district);
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		day = in.readInt();
+		category = in.readInt();
+		district = in.readInt();
+	}
+
+	public int compareTo(CrimeCellWritable o) {
+		return compare(day, category, district, o.day, o.category, o.district);
+	}
+
+	private static int compare(int d1, int c1, int t1, int d2, int c2, int t2) {
+		if (d1 != d2) {
+			return d1 < d2 ? -1 : 1;
+		}
+		if (c1 != c2) {
+			return c1 < c2 ? -1 : 1;
+		}
+		if (t1 != t2) {
+			return t1 < t2 ? -1 : 1;
+		}
+		return 0;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof CrimeCellWritable)) {
+			return false;
+		}
+		CrimeCellWritable other = (CrimeCellWritable) o;
+		return day == other.day && category == other.category && district == other.district;
+	}
+
+	@Override
+	public int hashCode() {
+		return (day * 31 + category) * 31 + district;
+	}
+
+	@Override
+	public String toString() {
+		return day + "," + category + "," + district;
+	}
+
+	/**
+	 * 直接比较序列化后的 12 个字节
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(CrimeCellWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return CrimeCellWritable.compare(readInt(b1, s1), readInt(b1, s1 + 4), readInt(b1, s1 + 8),
+					readInt(b2, s2), readInt(b2, s2 + 4), readInt(b2, s2 + 8));
+		}
+	}
+
+	static {
+		WritableComparator.define(CrimeCellWritable.class, new Comparator());
+	}
+}
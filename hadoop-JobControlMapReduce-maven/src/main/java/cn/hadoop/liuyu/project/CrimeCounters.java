@@ -0,0 +1,72 @@
+package cn.hadoop.liuyu.project;
+
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ *
+ * @function 每个阶段处理犯罪历史数据时的记录计数，作为 Hadoop counter 汇总到 job 中，
+ * 由 PipelineRunner.summary 按阶段输出；有问题的记录只计数，样本由 SampledLog 限量写入日志。
+ * mapper 在 long 数组中累计，cleanup 时一次加到 counter 上：
+ * MultithreadedMapper 的各线程共用同一组 counter，而 counter 的累加不是线程安全的
+ *
+ */
+public enum CrimeCounters {
+
+	/**
+	 * 成功解析并输出的记录
+	 */
+	PARSED,
+
+	/**
+	 * 被跳过的文件头
+	 */
+	SKIPPED_HEADER,
+
+	/**
+	 * 列数不足的记录
+	 */
+	MALFORMED,
+
+	/**
+	 * 日期无法解析的记录
+	 */
+	BAD_DATE,
+
+	/**
+	 * 不在配置的报表日期范围内的记录
+	 */
+	OUT_OF_RANGE,
+
+	/**
+	 * 犯罪类别不在字典中的记录
+	 */
+	UNKNOWN_CATEGORY,
+
+	/**
+	 * 犯罪区域不在字典中的记录
+	 */
+	UNKNOWN_DISTRICT;
+
+	/**
+	 * @return 下标为 ordinal() 的计数数组
+	 */
+	public static long[] newCounts() {
+		return new long[values().length];
+	}
+
+	/**
+	 * @function 把累计的计数加到 task 的 counter 上，在 cleanup 中调用
+	 * @param context task 的上下文
+	 * @param counts 下标为 ordinal() 的计数数组，加完后清零
+	 */
+	public static void increment(TaskAttemptContext context, long[] counts) {
+		synchronized (CrimeCounters.class) {
+			for (CrimeCounters value : values()) {
+				if (counts[value.ordinal()] != 0) {
+					context.getCounter(value).increment(counts[value.ordinal()]);
+					counts[value.ordinal()] = 0;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package cn.hadoop.liuyu.project;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+/**
+ *
+ * @function 犯罪历史数据的 InputFormat：按 CSV 记录分片读取（引号内可以有换行），文件头由 RecordReader 跳过，
+ * value 为带有分隔符位置的 CsvRecord，详见 CrimeCsvRecordReader
+ * 未压缩的文件和 bzip2 等可分片的压缩文件可以分片，gzip 等不可分片的压缩文件由一个 mapper 读取
+ *
+ */
+public class CrimeCsvInputFormat extends FileInputFormat<LongWritable, Text> {
+
+	/**
+	 * 一条记录的最大字节数：引号没有配对的记录读到此长度后结束，分片开头最多预读此长度判断引号状态
+	 */
+	public static final String MAX_RECORD = "crime.input.csv.max.record";
+
+	public static final int DEFAULT_MAX_RECORD = 1 << 20;
+
+	@Override
+	public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+		return new CrimeCsvRecordReader();
+	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path file) {
+		CompressionCodec codec = new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+		return codec == null || codec instanceof SplittableCompressionCodec;
+	}
+}
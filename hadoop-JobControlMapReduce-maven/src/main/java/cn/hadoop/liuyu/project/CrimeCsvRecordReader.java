@@ -0,0 +1,385 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.Seekable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CompressedSplitLineReader;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SplitLineReader;
+
+/**
+ *
+ * @function 按 CSV 记录（而不是按行）读取犯罪历史数据，key 为记录在文件中的位置，value 为 CsvRecord
+ * 与 LineRecordReader 相同，分片读取起始位置不大于分片结束位置的记录，一条记录可以越过分片结束位置；
+ * 引号内的换行属于字段内容，记录由若干物理行组成，直到引号配对为止。
+ * 不从文件开头开始的分片先跳过第一个不完整的行，此时并不知道下一行是在引号内还是引号外：
+ * 同时按“引号外”和“引号内”两种假设解析之后的数据，直到其中一种出现 RFC-4180 不允许的写法，
+ * 按另一种假设找到第一条完整记录（前一个分片读取的记录正好在此之前结束）；
+ * 读完 crime.input.csv.max.record 字节仍无法判断时按引号外处理，与按行读取相同。
+ * 只有文件开头的分片检查文件头，mapper 不需要逐行判断；
+ * 压缩文件的读取与 LineRecordReader 相同，bzip2 等可分片的压缩文件按块分片
+ *
+ */
+public class CrimeCsvRecordReader extends RecordReader<LongWritable, Text> {
+
+	private static final byte[] NEWLINE = { '\n' };
+
+	private long start;
+
+	private long pos;
+
+	private long end;
+
+	private SplitLineReader in;
+
+	private FSDataInputStream fileIn;
+
+	private Seekable filePosition;
+
+	private boolean isCompressedInput;
+
+	private Decompressor decompressor;
+
+	private int maxRecord;
+
+	private LongWritable key = null;
+
+	private CsvRecord value = null;
+
+	/**
+	 * 判断起始状态时预读的行，按顺序作为之后的记录读取
+	 */
+	private final Deque<PendingLine> pending = new ArrayDeque<PendingLine>();
+
+	private final Text line = new Text();
+
+	/**
+	 * 为 true 时第一条记录可能是文件头
+	 */
+	private boolean headerPending = false;
+
+	private Counter headers = null;
+
+	/**
+	 * 预读的一行
+	 */
+	private static class PendingLine {
+		final Text text;
+		final long pos;
+		//读取这一行之前是否还属于此分片（与 nextKeyValue 的判断相同）
+		final boolean readable;
+
+		PendingLine(Text text, long pos, boolean readable) {
+			this.text = text;
+			this.pos = pos;
+			this.readable = readable;
+		}
+	}
+
+	/**
+	 * 按 RFC-4180 解析的引号状态，出现不允许的写法时 valid 变为 false
+	 */
+	static class QuoteState {
+		static final int FIELD_START = 0;
+		static final int UNQUOTED = 1;
+		static final int QUOTED = 2;
+		static final int QUOTE_IN_QUOTED = 3;//引号内遇到引号：结束引号或转义引号的前一半
+
+		int state;
+		boolean valid = true;
+
+		QuoteState(int state) {
+			this.state = state;
+		}
+
+		/**
+		 * @function 解析一行及其后的换行符
+		 * @return 这一行结束时一条记录也结束返回 true
+		 */
+		boolean feed(byte[] b, int len) {
+			for (int i = 0; i < len && valid; i++) {
+				feed(b[i]);
+			}
+			boolean retVal = valid && state != QUOTED;
+			feed((byte) '\n');
+			return retVal;
+		}
+
+		void feed(byte c) {
+			switch (state) {
+			case FIELD_START:
+				state = c == '"' ? QUOTED : (c == ',' || c == '\n' ? FIELD_START : UNQUOTED);
+				break;
+			case UNQUOTED:
+				if (c == '"') {
+					valid = false;
+				} else if (c == ',' || c == '\n') {
+					state = FIELD_START;
+				}
+				break;
+			case QUOTED:
+				if (c == '"') {
+					state = QUOTE_IN_QUOTED;
+				}
+				break;
+			default:
+				if (c == '"') {
+					state = QUOTED;
+				} else if (c == ',' || c == '\n') {
+					state = FIELD_START;
+				} else {
+					valid = false;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+		FileSplit split = (FileSplit) genericSplit;
+		Configuration job = context.getConfiguration();
+		maxRecord = job.getInt(CrimeCsvInputFormat.MAX_RECORD, CrimeCsvInputFormat.DEFAULT_MAX_RECORD);
+		start = split.getStart();
+		end = start + split.getLength();
+		final Path file = split.getPath();
+
+		final FileSystem fs = file.getFileSystem(job);
+		fileIn = fs.open(file);
+		CompressionCodec codec = new CompressionCodecFactory(job).getCodec(file);
+		if (codec != null) {
+			isCompressedInput = true;
+			decompressor = CodecPool.getDecompressor(codec);
+			if (codec instanceof SplittableCompressionCodec) {
+				//按压缩块对齐分片，分片的位置是压缩文件中的位置
+				final SplitCompressionInputStream cIn = ((SplittableCompressionCodec) codec).createInputStream(fileIn,
+						decompressor, start, end, SplittableCompressionCodec.READ_MODE.BYBLOCK);
+				in = new CompressedSplitLineReader(cIn, job, null);
+				start = cIn.getAdjustedStart();
+				end = cIn.getAdjustedEnd();
+				filePosition = cIn;
+			} else {
+				in = new SplitLineReader(codec.createInputStream(fileIn, decompressor), job, null);
+				filePosition = fileIn;
+			}
+		} else {
+			fileIn.seek(start);
+			in = new SplitLineReader(fileIn, job, null);
+			filePosition = fileIn;
+		}
+		headers = context.getCounter(CrimeCounters.SKIPPED_HEADER);
+		if (start != 0) {
+			//第一个不完整的行属于前一个分片；与其他 readLine 相同不限制读取的字节数，
+			//否则行越过读缓冲区的边界时只跳过一部分
+			start += in.readLine(new Text(), 0, Integer.MAX_VALUE);
+			pos = start;
+			resync();
+		} else {
+			pos = start;
+			headerPending = true;
+		}
+	}
+
+	private long getFilePosition() throws IOException {
+		return isCompressedInput && filePosition != null ? filePosition.getPos() : pos;
+	}
+
+	/**
+	 * @function 预读若干行，判断分片中的第一行是在引号外（记录的开头）还是在引号内（前一个分片最后一条记录的一部分），
+	 * 丢弃属于前一个分片的行，其余的行留在 pending 中
+	 */
+	private void resync() throws IOException {
+		QuoteState outside = new QuoteState(QuoteState.FIELD_START);
+		QuoteState inside = new QuoteState(QuoteState.QUOTED);
+		int insideEnd = -1;//按引号内假设，前 insideEnd 行属于前一个分片的记录
+		long scanned = 0;
+		while (outside.valid && inside.valid && scanned < maxRecord) {
+			PendingLine next = readAhead();
+			if (next == null) {
+				break;
+			}
+			scanned += next.text.getLength() + 1;
+			outside.feed(next.text.getBytes(), next.text.getLength());
+			if (inside.feed(next.text.getBytes(), next.text.getLength()) && insideEnd < 0) {
+				insideEnd = pending.size();
+			}
+		}
+		if (outside.valid || !inside.valid) {
+			return;
+		}
+		//第一行在引号内：丢弃前一个分片的记录剩余的行
+		while (insideEnd < 0 && scanned < maxRecord) {
+			PendingLine next = readAhead();
+			if (next == null) {
+				break;
+			}
+			scanned += next.text.getLength() + 1;
+			if (inside.feed(next.text.getBytes(), next.text.getLength())) {
+				insideEnd = pending.size();
+			}
+		}
+		if (insideEnd < 0) {
+			return;//引号一直没有配对，按引号外处理
+		}
+		for (int i = 0; i < insideEnd; i++) {
+			pending.poll();
+		}
+	}
+
+	/**
+	 * @return 读入 pending 的下一行，文件结束时返回 null
+	 */
+	private PendingLine readAhead() throws IOException {
+		boolean readable = getFilePosition() <= end || in.needAdditionalRecordAfterSplit();
+		Text text = new Text();
+		long linePos = pos;
+		int n = in.readLine(text, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		if (n == 0) {
+			return null;
+		}
+		pos += n;
+		PendingLine retVal = new PendingLine(text, linePos, readable);
+		pending.add(retVal);
+		return retVal;
+	}
+
+	/**
+	 * @function 读取记录的下一行（记录内部的行不受分片结束位置的限制）
+	 * @return 下一行，文件结束时返回 null
+	 */
+	private Text continuation() throws IOException {
+		PendingLine next = pending.poll();
+		if (next != null) {
+			return next.text;
+		}
+		int n = in.readLine(line, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		if (n == 0) {
+			return null;
+		}
+		pos += n;
+		return line;
+	}
+
+	/**
+	 * @function 读取一条记录：第一行必须从分片中开始，引号没有配对时继续读取下一行
+	 * @return 没有记录时返回 false
+	 */
+	private boolean readRecord() throws IOException {
+		PendingLine first = pending.poll();
+		if (first != null) {
+			if (!first.readable) {
+				pending.clear();
+				return false;
+			}
+			key.set(first.pos);
+			value.set(first.text);
+		} else {
+			if (!(getFilePosition() <= end || in.needAdditionalRecordAfterSplit())) {
+				return false;
+			}
+			key.set(pos);
+			//记录的第一行从分片中开始即可，可以越过分片结束位置
+			int n = in.readLine(value, Integer.MAX_VALUE, Integer.MAX_VALUE);
+			if (n == 0) {
+				return false;
+			}
+			pos += n;
+		}
+		boolean quoted = value.scan(0);
+		while (quoted && value.getLength() < maxRecord) {
+			Text next = continuation();
+			if (next == null) {
+				break;
+			}
+			int from = value.getLength();
+			value.append(NEWLINE, 0, 1);
+			value.append(next.getBytes(), 0, next.getLength());
+			quoted = value.scan(from);
+		}
+		value.seal();
+		return true;
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException {
+		if (key == null) {
+			key = new LongWritable();
+		}
+		if (value == null) {
+			value = new CsvRecord();
+		}
+		while (readRecord()) {
+			if (headerPending) {
+				headerPending = false;
+				if (isHeader(value)) {
+					headers.increment(1);
+					continue;
+				}
+			}
+			return true;
+		}
+		key = null;
+		value = null;
+		return false;
+	}
+
+	/**
+	 * @return 日期列的内容为 Date 时是文件头
+	 */
+	private static boolean isHeader(Text record) {
+		CsvTokenizer tokenizer = MapReduceJobBase.projectedTokenizer(MapReduceJobBase.DATE_COLUMN_INDEX);
+		return tokenizer.tokenize(record) > MapReduceJobBase.DATE_COLUMN_INDEX
+				&& tokenizer.equalsIgnoreCase(MapReduceJobBase.DATE_COLUMN_INDEX, "date");
+	}
+
+	@Override
+	public LongWritable getCurrentKey() {
+		return key;
+	}
+
+	@Override
+	public Text getCurrentValue() {
+		return value;
+	}
+
+	@Override
+	public float getProgress() throws IOException {
+		if (start == end) {
+			return 0.0f;
+		}
+		return Math.min(1.0f, (getFilePosition() - start) / (float) (end - start));
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (in != null) {
+				in.close();
+			} else if (fileIn != null) {
+				fileIn.close();
+			}
+		} finally {
+			if (decompressor != null) {
+				CodecPool.returnDecompressor(decompressor);
+				decompressor = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package cn.hadoop.liuyu.project;
+
+import java.nio.charset.Charset;
+
+/**
+ *
+ * @function 犯罪历史数据日期的解析与计算，日期统一用 yyyymmdd 格式的整数表示
+ * 只包含静态方法和只读的预计算表，没有共享的可变状态，可以在多个线程中同时使用
+ *
+ */
+public final class CrimeDate {
+
+	/**
+	 * 无法解析的日期
+	 */
+	public static final int INVALID = Integer.MIN_VALUE;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * 预计算表覆盖的年份范围 [MIN_YEAR, MAX_YEAR)
+	 */
+	private static final int MIN_YEAR = 1900;
+
+	private static final int MAX_YEAR = 2100;
+
+	/**
+	 * 每个月1号是礼拜几（礼拜天为0），用于计算周时段
+	 */
+	private static final byte[] FIRST_DAY_OF_WEEK = new byte[(MAX_YEAR - MIN_YEAR) * 12];
+
+	private static final int[] DAYS_IN_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+	static {
+		for (int year = MIN_YEAR; year < MAX_YEAR; year++) {
+			for (int month = 1; month <= 12; month++) {
+				FIRST_DAY_OF_WEEK[(year - MIN_YEAR) * 12 + month - 1] = (byte) dayOfWeek(epochDay(year, month, 1));
+			}
+		}
+	}
+
+	private CrimeDate() {
+	}
+
+	/**
+	 * @function 解析 MM/dd/yyyy 开头的日期（其后的时间部分被忽略），不创建任何对象
+	 * @param b 字节数组
+	 * @param off 起始位置
+	 * @param len 长度
+	 * @return yyyymmdd 格式的日期，无法解析时返回 INVALID
+	 */
+	public static int parse(byte[] b, int off, int len) {
+		int end = off + len;
+		int p = off;
+		int month = 0;
+		int digits = 0;
+		while (p < end && b[p] >= '0' && b[p] <= '9' && digits < 2) {
+			month = month * 10 + (b[p++] - '0');
+			digits++;
+		}
+		if (digits == 0 || p >= end || b[p++] != '/') {
+			return INVALID;
+		}
+		int day = 0;
+		digits = 0;
+		while (p < end && b[p] >= '0' && b[p] <= '9' && digits < 2) {
+			day = day * 10 + (b[p++] - '0');
+			digits++;
+		}
+		if (digits == 0 || p >= end || b[p++] != '/') {
+			return INVALID;
+		}
+		int year = 0;
+		digits = 0;
+		while (p < end && b[p] >= '0' && b[p] <= '9' && digits < 4) {
+			year = year * 10 + (b[p++] - '0');
+			digits++;
+		}
+		if (digits != 4 || (p < end && b[p] != ' ' && b[p] != 'T')) {
+			return INVALID;
+		}
+		if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+			return INVALID;
+		}
+		return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * @function 解析 MM/dd/yyyy 开头的日期字符串
+	 * @param value 日期字符串
+	 * @return yyyymmdd 格式的日期，无法解析时返回 INVALID
+	 */
+	public static int parse(String value) {
+		byte[] b = value.getBytes(UTF8);
+		return parse(b, 0, b.length);
+	}
+
+	/**
+	 * @function 解析 HH:mm 格式的时间中的小时，不创建任何对象
+	 * @param b 字节数组
+	 * @param off 起始位置
+	 * @param len 长度
+	 * @return 0-23 的小时，无法解析时返回 -1
+	 */
+	public static int parseHour(byte[] b, int off, int len) {
+		int end = off + len;
+		int p = off;
+		int hour = 0;
+		int digits = 0;
+		while (p < end && b[p] >= '0' && b[p] <= '9' && digits < 2) {
+			hour = hour * 10 + (b[p++] - '0');
+			digits++;
+		}
+		if (digits == 0 || (p < end && b[p] != ':') || hour > 23) {
+			return -1;
+		}
+		return hour;
+	}
+
+	/**
+	 * @function 解析 format 生成的 yyyy/MM/dd 格式的日期，即 map/reduce 输出文件中的日期
+	 * @param value 日期字符串
+	 * @return yyyymmdd 格式的日期，无法解析时返回 INVALID
+	 */
+	public static int parseFormatted(String value) {
+		if (value.length() != 10 || value.charAt(4) != '/' || value.charAt(7) != '/') {
+			return INVALID;
+		}
+		int year = 0;
+		int month = 0;
+		int day = 0;
+		for (int i = 0; i < 10; i++) {
+			char c = value.charAt(i);
+			if (i == 4 || i == 7) {
+				continue;
+			}
+			if (c < '0' || c > '9') {
+				return INVALID;
+			}
+			if (i < 4) {
+				year = year * 10 + (c - '0');
+			} else if (i < 7) {
+				month = month * 10 + (c - '0');
+			} else {
+				day = day * 10 + (c - '0');
+			}
+		}
+		if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+			return INVALID;
+		}
+		return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * @param date yyyymmdd 格式的日期
+	 * @return 年
+	 */
+	public static int year(int date) {
+		return date / 10000;
+	}
+
+	/**
+	 * @param date yyyymmdd 格式的日期
+	 * @return 月，从1开始
+	 */
+	public static int month(int date) {
+		return date / 100 % 100;
+	}
+
+	/**
+	 * @param date yyyymmdd 格式的日期
+	 * @return 这个月的第几天
+	 */
+	public static int dayOfMonth(int date) {
+		return date % 100;
+	}
+
+	/**
+	 * @function 这个月的第几周，与 Calendar.WEEK_OF_MONTH 一致（礼拜天为一周的第一天）
+	 * @param date yyyymmdd 格式的日期
+	 * @return 这个月的第几周，从1开始
+	 */
+	public static int weekOfMonth(int date) {
+		int year = year(date);
+		int month = month(date);
+		int first;
+		if (year >= MIN_YEAR && year < MAX_YEAR) {
+			first = FIRST_DAY_OF_WEEK[(year - MIN_YEAR) * 12 + month - 1];
+		} else {
+			first = dayOfWeek(epochDay(year, month, 1));
+		}
+		return (dayOfMonth(date) - 1 + first) / 7 + 1;
+	}
+
+	/**
+	 * @function 计算日期所在的周时段：month * 5 + WEEK_OF_MONTH（month 从0开始）
+	 * 1-3月的数据最大为15，它只是一种统计方式，不必深究
+	 * @param date yyyymmdd 格式的日期
+	 * @return 周时段
+	 */
+	public static int weekBucket(int date) {
+		return (month(date) - 1) * 5 + weekOfMonth(date);
+	}
+
+	/**
+	 * @param date yyyymmdd 格式的日期
+	 * @return 从 1970-01-01 开始的天数
+	 */
+	public static int toEpochDay(int date) {
+		return epochDay(year(date), month(date), dayOfMonth(date));
+	}
+
+	/**
+	 * @param epochDay 从 1970-01-01 开始的天数
+	 * @return yyyymmdd 格式的日期
+	 */
+	public static int fromEpochDay(int epochDay) {
+		//参考 Howard Hinnant 的 civil_from_days 算法
+		int z = epochDay + 719468;
+		int era = (z >= 0 ? z : z - 146096) / 146097;
+		int doe = z - era * 146097;
+		int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		int mp = (5 * doy + 2) / 153;
+		int day = doy - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+		return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * @param date yyyymmdd 格式的日期
+	 * @return yyyy/MM/dd 格式的日期，与 map/reduce 输出的日期格式一致
+	 */
+	public static String format(int date) {
+		StringBuilder sb = new StringBuilder(10);
+		int month = month(date);
+		int day = dayOfMonth(date);
+		sb.append(year(date)).append('/');
+		if (month < 10) {
+			sb.append('0');
+		}
+		sb.append(month).append('/');
+		if (day < 10) {
+			sb.append('0');
+		}
+		sb.append(day);
+		return sb.toString();
+	}
+
+	private static boolean isLeapYear(int year) {
+		return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		return month == 2 && isLeapYear(year) ? 29 : DAYS_IN_MONTH[month - 1];
+	}
+
+	private static int epochDay(int year, int month, int day) {
+		//参考 Howard Hinnant 的 days_from_civil 算法
+		int y = month <= 2 ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yoe = y - era * 400;
+		int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	/**
+	 * @return 礼拜几，礼拜天为0
+	 */
+	private static int dayOfWeek(int epochDay) {
+		//1970-01-01 是礼拜四
+		int dow = (epochDay + 4) % 7;
+		return dow < 0 ? dow + 7 : dow;
+	}
+}
@@ -0,0 +1,253 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ *
+ * @function 运行完整的数据处理流程：犯罪报表 → OLAP 预处理 → 星型模型入库
+ * 按依赖关系组成 DAG：报表完成后，OLAP 预处理和维度表入库并行运行，两者都完成后加载 fact 表
+ * 设置 crime.pipeline.incremental 后只处理 watermark 之后的日期分区（input/dt=yyyy-MM-dd），
+ * 新的维度值追加到 id 不变的字典中，fact 表只追加受影响日期的数据，全部成功后才更新 watermark；
+ * 分区中以前日期的迟到记录与以前各批的数据并存，重新运行只删除本批写入的数据
+ * 设置 crime.pipeline.direct 后 OLAP 预处理的 reducer 直接写入 fact 表，不再生成 out3 文本文件并重新读取
+ *
+ */
+public class CrimePipeline extends MapReduceJobBase implements Tool {
+
+	private static Logger log = Logger.getLogger(CrimePipeline.class.getCanonicalName());
+
+	public static final String INCREMENTAL = "crime.pipeline.incremental";
+
+	public static final String DIRECT = "crime.pipeline.direct";
+
+	/**
+	 * 维度表入库和 fact 表入库共用同一个数据库连接；由维度表阶段创建，fact 阶段在其他线程中读取
+	 */
+	private volatile LoadStarDB loader = null;
+
+	public int run(String[] args) throws Exception {
+		final Configuration conf = getConf();
+		Path input = new Path(args[0]);
+		Path out1 = new Path(args[1]);
+		Path out2 = new Path(args[2]);
+		Path out3 = new Path(args[3]);
+		//报表可能由多个 reducer 输出，字典取自整个报表目录
+		final String categoryReport = out1.toString();
+		final String districtReport = out2.toString();
+		final String dbhost = args[4];
+		final String dbname = args[5];
+		final String dbuser = args[6];
+		final String dbpassword = args[7];
+		final FileSystem fs = out3.getFileSystem(conf);
+		if (conf.getBoolean(DIRECT, false) && conf.get(LoadStarDB.JDBC_URL) == null) {
+			//reducer 通过配置中的连接串连接数据库
+			conf.set(LoadStarDB.JDBC_URL, LoadStarDB.mysqlUrl(dbhost, dbname, dbuser, dbpassword));
+		}
+		if (conf.getBoolean(INCREMENTAL, false)) {
+			return runIncremental(conf, input, out1, out2, out3, dbhost, dbname, dbuser, dbpassword, fs);
+		}
+
+		PipelineRunner runner = PipelineRunner.fromConfiguration(conf);
+		PipelineRunner.Stage reports = runner.add(SanFranciscoCrime.reportStage(conf, new Path[] { input }, out1, out2));
+		//清空星型模型并插入犯罪类别和犯罪区域维度
+		PipelineRunner.Stage dimensions = runner.add(dimensionStage(conf, categoryReport, districtReport,
+				dbhost, dbname, dbuser, dbpassword, fs, null)).dependsOn(reports);
+		addFactStages(runner, conf, new Path[] { input }, categoryReport, districtReport, out3, fs, reports, dimensions,
+				true);
+		return runPipeline(runner);
+	}
+
+	/**
+	 * @function 创建加载维度表的阶段，字典 id 到主键id的映射和 fact 表的起点保存在加载器中，
+	 * 不写入各阶段共用的 conf（OLAP 预处理可能正在另一个线程中用它创建 job）
+	 * @param state 增量状态，全量运行时为 null；增量运行时开始一批数据，记录 fact 表的起点
+	 * @return 流程阶段
+	 */
+	private PipelineRunner.Stage dimensionStage(final Configuration conf, final String categoryDictionary,
+			final String districtDictionary, final String dbhost, final String dbname, final String dbuser,
+			final String dbpassword, final FileSystem fs, final IncrementalState state) {
+		return new PipelineRunner.Stage("dimensions") {
+			@Override
+			protected boolean execute() throws Exception {
+				closeLoader();
+				loader = LoadStarDB.fromConfiguration(conf, categoryDictionary, districtDictionary, dbhost, dbname, dbuser,
+						dbpassword, fs, state != null);
+				if (state != null) {
+					loader.setFactMark(state.beginBatch(loader.maxFactId()));
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * @function 加入生成并加载 fact 数据的阶段：
+	 * 直接写入模式下是一个写入数据库的 job；否则先生成 out3，再由 LoadStarDB 并行加载
+	 * @param ready OLAP 预处理依赖的阶段（字典已经可用）
+	 * @param dimensions 加载维度表的阶段
+	 * @param resetOnRetry 重试时是否清空 fact 表（增量模式按日期删除，不需要清空）
+	 * @return 最后一个阶段
+	 * @throws IOException
+	 */
+	private PipelineRunner.Stage addFactStages(PipelineRunner runner, Configuration conf, Path[] inputs,
+			String categoryDictionary, String districtDictionary, Path out3, final FileSystem fs,
+			PipelineRunner.Stage ready, PipelineRunner.Stage dimensions, final boolean resetOnRetry) throws IOException {
+		if (conf.getBoolean(DIRECT, false)) {
+			//reducer 需要维度主键id，所以在维度表加载之后运行
+			return runner.add(new SanFranciscoCrimePrepOlap.DirectStage(conf, inputs, categoryDictionary,
+					districtDictionary, out3) {
+				@Override
+				protected void configure(Configuration jobConf) {
+					StarSchemaOutputFormat.setDimensionIds(jobConf, StarSchemaOutputFormat.CATEGORY_IDS,
+							loader.getCategoryIds());
+					StarSchemaOutputFormat.setDimensionIds(jobConf, StarSchemaOutputFormat.DISTRICT_IDS,
+							loader.getDistrictIds());
+					jobConf.setLong(StarSchemaOutputFormat.FACT_MARK, loader.getFactMark());
+				}
+			}).dependsOn(ready, dimensions);
+		}
+		final String dataFile = out3.toString();//加载目录中所有的 part-* 文件
+		PipelineRunner.Stage olap = runner.add(SanFranciscoCrimePrepOlap.olapStage(conf, inputs,
+				categoryDictionary, districtDictionary, out3)).dependsOn(ready);
+		return runner.add(new PipelineRunner.Stage("facts") {
+			//加载器在流程结束时关闭，summary 使用此阶段保存的计数
+			private volatile Counters counters = null;
+
+			@Override
+			protected boolean execute() throws Exception {
+				if (resetOnRetry && getAttempts() > 1) {
+					//重试时清除上一次尝试写入的部分数据
+					loader.resetFacts();
+				}
+				//增量模式下重试时按日期删除本批数据上一次尝试写入的记录
+				loader.processData(dataFile, fs);
+				counters = loader.getCounters();
+				return true;
+			}
+
+			@Override
+			public Counters getCounters() {
+				return counters;
+			}
+		}).dependsOn(olap, dimensions);
+	}
+
+	/**
+	 * @function 增量运行：报表 → 合并字典 → OLAP 预处理 / 追加维度 → 追加 fact → 更新 watermark
+	 * out1/out2/out3 中只包含本次新增分区的数据
+	 * @return 退出码
+	 * @throws Exception
+	 */
+	private int runIncremental(final Configuration conf, Path input, Path out1, Path out2, Path out3,
+			final String dbhost, final String dbname, final String dbuser, final String dbpassword,
+			final FileSystem fs) throws Exception {
+		Path stateDir = new Path(conf.get(IncrementalState.STATE_DIR, new Path(out3.getParent(), "_state").toString()));
+		final IncrementalState state = new IncrementalState(fs, stateDir);
+		int watermark = state.readWatermark();
+		List<Path> partitions = state.newPartitions(input, watermark);
+		if (partitions.isEmpty()) {
+			//watermark 是 yyyymmdd 格式的日期，不按数字分组输出
+			log.info(MessageFormat.format("No partitions after {0}, nothing to do.",
+					new Object[] { Integer.toString(watermark) }));
+			return 0;
+		}
+		final int newWatermark = IncrementalState.partitionDay(partitions.get(partitions.size() - 1));
+		//删除之前用上一批数据的报表计算报表 job 的 reducer 分配方案
+		SanFranciscoCrime.planReportPartitions(conf, fs, out1, out2);
+		if (!conf.getBoolean(PipelineRunner.RESUME, false)) {
+			//上一次运行的输出属于已经处理过的分区
+			for (Path out : new Path[] { out1, out2, out3 }) {
+				if (fs.exists(out)) {
+					fs.delete(out, true);
+				}
+			}
+		}
+		//字典文件按 id 排列，task 加载时不能重新排序
+		conf.setBoolean(DataFile.DICTIONARY_ORDERED, true);
+		final Path categoryReport = out1;
+		final Path districtReport = out2;
+		final String categoryDictionary = state.dictionaryPath(IncrementalState.CATEGORY_DICTIONARY).toString();
+		final String districtDictionary = state.dictionaryPath(IncrementalState.DISTRICT_DICTIONARY).toString();
+
+		PipelineRunner runner = PipelineRunner.fromConfiguration(conf);
+		PipelineRunner.Stage reports = runner.add(SanFranciscoCrime.reportStage(conf,
+				partitions.toArray(new Path[partitions.size()]), out1, out2));
+		PipelineRunner.Stage dictionaries = runner.add(new PipelineRunner.Stage("dictionaries") {
+			@Override
+			protected boolean execute() throws Exception {
+				int categories = state.mergeDictionary(IncrementalState.CATEGORY_DICTIONARY, reportKeys(fs, categoryReport));
+				int districts = state.mergeDictionary(IncrementalState.DISTRICT_DICTIONARY, reportKeys(fs, districtReport));
+				log.info(MessageFormat.format("New categories: {0}, new districts: {1}",
+						new Object[] { categories, districts }));
+				return true;
+			}
+		}).dependsOn(reports);
+		//只插入字典中新增的犯罪类别和犯罪区域
+		PipelineRunner.Stage dimensions = runner.add(dimensionStage(conf, categoryDictionary, districtDictionary,
+				dbhost, dbname, dbuser, dbpassword, fs, state)).dependsOn(dictionaries);
+		PipelineRunner.Stage facts = addFactStages(runner, conf, partitions.toArray(new Path[partitions.size()]),
+				categoryDictionary, districtDictionary, out3, fs, dictionaries, dimensions, false);
+		runner.add(new PipelineRunner.Stage("watermark") {
+			@Override
+			protected boolean execute() throws Exception {
+				state.writeWatermark(newWatermark);
+				return true;
+			}
+		}).dependsOn(facts);
+		return runPipeline(runner);
+	}
+
+	/**
+	 * @return 报表中的 key 值，报表不存在（没有数据）时返回空集合
+	 */
+	private static List<String> reportKeys(FileSystem fs, Path report) throws IOException {
+		return fs.exists(report) ? DataFile.extractKeys(report.toString(), fs) : new ArrayList<String>();
+	}
+
+	private int runPipeline(PipelineRunner runner) throws Exception {
+		boolean success;
+		try {
+			success = runner.run();
+		} finally {
+			closeLoader();
+		}
+		System.out.println(runner.summary());
+		return success ? 0 : 1;
+	}
+
+	private void closeLoader() throws SQLException {
+		if (loader != null) {
+			loader.close();
+			loader = null;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String[] args0 = {
+                "hdfs://master:9000/middle/crime/crime.csv",
+                "hdfs://master:9000/middle/test/out1/",
+                "hdfs://master:9000/middle/test/out2/",
+                "hdfs://master:9000/middle/test/out3/",
+                "192.168.138.128:3306",
+                "HadoopTest",
+                "root",
+                "12035318"};
+		if (args.length == 8) {
+			args0 = args;
+		}
+		int ec = ToolRunner.run(new Configuration(), new CrimePipeline(), args0);
+		System.exit(ec);
+	}
+}
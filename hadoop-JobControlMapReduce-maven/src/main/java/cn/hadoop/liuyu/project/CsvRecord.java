@@ -0,0 +1,182 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @function CrimeCsvRecordReader 输出的一条 CSV 记录（可能包含引号内的换行），同时带有引号外各分隔符的位置
+ * 读取记录时寻找记录边界已经逐字节扫描过引号，分隔符的位置在同一次扫描中得到；
+ * CsvTokenizer 切分时直接跳到需要的列，不再扫描不需要的列；
+ * 内容被修改（set、append、readFields 等）后分隔符位置失效，CsvTokenizer 按普通 Text 处理
+ *
+ */
+public class CsvRecord extends Text {
+
+	private static final byte SEPARATOR = ',';
+
+	private static final byte QUOTE = '"';
+
+	/**
+	 * 引号外的分隔符在 getBytes() 中的位置
+	 */
+	private int[] separators = new int[16];
+
+	private int count = 0;
+
+	private static final int FIELD_START = 0;
+
+	private static final int UNQUOTED = 1;
+
+	private static final int QUOTED = 2;
+
+	private static final int QUOTE_IN_QUOTED = 3;//引号内遇到引号：结束引号或转义引号的前一半
+
+	/**
+	 * 已扫描部分结束时的状态，追加的内容从此状态继续扫描
+	 */
+	private int state = FIELD_START;
+
+	/**
+	 * 为 true 时 separators 与当前内容一致
+	 */
+	private boolean sealed = false;
+
+	/**
+	 * @function 扫描 [from, getLength()) 中的字节，记录引号外的分隔符，从上一次扫描结束时的状态继续
+	 * 与 CsvTokenizer 相同，只有列开头的引号开始引号内的内容，列中间的引号和结束引号之后的引号都是普通字符
+	 * @param from 起始位置，即上一次扫描的结束位置
+	 * @return 扫描结束时是否在引号内，为 true 时记录还没有结束
+	 */
+	boolean scan(int from) {
+		byte[] b = getBytes();
+		int end = getLength();
+		for (int i = from; i < end; i++) {
+			byte c = b[i];
+			switch (state) {
+			case QUOTED:
+				if (c == QUOTE) {
+					state = QUOTE_IN_QUOTED;
+				}
+				continue;
+			case QUOTE_IN_QUOTED:
+				if (c == QUOTE) {
+					state = QUOTED;//转义引号
+					continue;
+				}
+				state = UNQUOTED;//结束引号之后直到分隔符的内容被忽略
+				break;
+			case FIELD_START:
+				if (c == QUOTE) {
+					state = QUOTED;
+					continue;
+				}
+				state = UNQUOTED;
+				break;
+			default:
+				break;
+			}
+			if (c == SEPARATOR) {
+				if (count == separators.length) {
+					int[] s = new int[count * 2];
+					System.arraycopy(separators, 0, s, 0, count);
+					separators = s;
+				}
+				separators[count++] = i;
+				state = FIELD_START;
+			}
+		}
+		return state == QUOTED;
+	}
+
+	/**
+	 * @function 记录读取完成，此后分隔符的位置可以使用
+	 */
+	void seal() {
+		sealed = true;
+	}
+
+	/**
+	 * @return 分隔符的位置是否可以使用
+	 */
+	public boolean isSealed() {
+		return sealed;
+	}
+
+	/**
+	 * @return 记录的列数，分隔符位置不可用时返回 0
+	 */
+	public int fields() {
+		return sealed ? count + 1 : 0;
+	}
+
+	/**
+	 * @param i 列下标，小于 fields()
+	 * @return 第 i 列之后的分隔符的位置，最后一列返回记录的长度
+	 */
+	public int end(int i) {
+		return i < count ? separators[i] : getLength();
+	}
+
+	private void reset() {
+		sealed = false;
+		count = 0;
+		state = FIELD_START;
+	}
+
+	@Override
+	public void set(String string) {
+		reset();
+		super.set(string);
+	}
+
+	@Override
+	public void set(byte[] utf8) {
+		reset();
+		super.set(utf8);
+	}
+
+	@Override
+	public void set(Text other) {
+		reset();
+		super.set(other);
+	}
+
+	@Override
+	public void set(byte[] utf8, int start, int len) {
+		reset();
+		super.set(utf8, start, len);
+	}
+
+	@Override
+	public void append(byte[] utf8, int start, int len) {
+		sealed = false;//已经扫描过的分隔符仍然有效，scan 继续扫描追加的部分
+		super.append(utf8, start, len);
+	}
+
+	@Override
+	public void clear() {
+		reset();
+		super.clear();
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		reset();
+		super.readFields(in);
+	}
+
+	@Override
+	public void readFields(DataInput in, int maxLength) throws IOException {
+		reset();
+		super.readFields(in, maxLength);
+	}
+
+	@Override
+	public void readWithKnownLength(DataInput in, int len) throws IOException {
+		reset();
+		super.readWithKnownLength(in, len);
+	}
+}
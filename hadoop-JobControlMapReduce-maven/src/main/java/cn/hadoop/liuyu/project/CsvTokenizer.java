@@ -0,0 +1,296 @@
+package cn.hadoop.liuyu.project;
+
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ *
+ * @function 可复用的 CSV 行解析器（RFC-4180），直接在 Text 的字节缓冲区上切分字段
+ * 解析结果以 (起始位置, 长度) 的形式保存每一列，不为每行数据创建新对象
+ *
+ */
+public class CsvTokenizer {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte SEPARATOR = ',';
+
+	private static final byte QUOTE = '"';
+
+	/**
+	 * 当前行各列所在的字节数组：没有转义引号时就是输入缓冲区本身
+	 */
+	private byte[] data;
+
+	/**
+	 * 出现转义引号("")时，去转义后的数据写入此缓冲区，反复使用
+	 */
+	private byte[] scratch = new byte[0];
+
+	private int[] starts = new int[16];
+
+	private int[] lengths = new int[16];
+
+	private int count = 0;
+
+	/**
+	 * 需要解析的列，为 null 时解析所有列
+	 */
+	private boolean[] projected = null;
+
+	/**
+	 * 解析到第 limit 列后停止，不再扫描行的剩余部分
+	 */
+	private int limit = Integer.MAX_VALUE;
+
+	/**
+	 * 正在解析的 CsvRecord，其中已有分隔符的位置时不需要的列直接跳过，否则为 null
+	 */
+	private CsvRecord record = null;
+
+	/**
+	 * @function 设置只解析指定的列：其余列只做快速扫描，不记录内容，并在最后一个需要的列后停止
+	 * @param minColumns 至少扫描的列数（用于判断行是否完整）
+	 * @param columns 需要解析的列下标
+	 */
+	public void project(int minColumns, int... columns) {
+		int max = -1;
+		for (int c : columns) {
+			max = Math.max(max, c);
+		}
+		projected = new boolean[max + 1];
+		for (int c : columns) {
+			projected[c] = true;
+		}
+		limit = Math.max(minColumns, max + 1);
+	}
+
+	/**
+	 * @param i 列下标
+	 * @return 第 i 列的内容是否被解析
+	 */
+	public boolean isProjected(int i) {
+		return projected == null || (i < projected.length && projected[i]);
+	}
+
+	/**
+	 * @function 解析 Text 中的一行 CSV 数据；CrimeCsvInputFormat 读取的 CsvRecord 带有分隔符的位置，不需要的列不再扫描
+	 * @param line 一行数据
+	 * @return 解析出的列数
+	 */
+	public int tokenize(Text line) {
+		if (line instanceof CsvRecord && ((CsvRecord) line).isSealed()) {
+			record = (CsvRecord) line;
+			try {
+				return tokenize(line.getBytes(), 0, line.getLength());
+			} finally {
+				record = null;
+			}
+		}
+		return tokenize(line.getBytes(), 0, line.getLength());
+	}
+
+	/**
+	 * @function 解析字节数组中的一行 CSV 数据
+	 * 引号内的逗号和换行属于字段内容，两个连续的引号表示一个引号字符
+	 * @param src 数据所在的字节数组
+	 * @param off 起始位置
+	 * @param len 长度
+	 * @return 解析出的列数
+	 */
+	public int tokenize(byte[] src, int off, int len) {
+		int end = off + len;
+		//去掉行尾的换行符
+		while (end > off && (src[end - 1] == '\n' || src[end - 1] == '\r')) {
+			end--;
+		}
+		data = src;
+		count = 0;
+		boolean direct = true;//为 true 时，各列直接指向 src
+		int r = off;//读位置
+		int w = off;//写位置，只有去转义后才会落后于读位置
+		while (count < limit) {
+			if (direct) {
+				w = r;
+			}
+			int start = w;
+			if (!isProjected(count)) {
+				r = record != null && count < record.fields() ? record.end(count) : skip(src, r, end);
+				add(-1, 0);
+			} else if (r < end && src[r] == QUOTE) {
+				r++;
+				if (direct) {
+					w = r;
+				}
+				start = w;
+				while (r < end) {
+					byte b = src[r];
+					if (b == QUOTE) {
+						if (r + 1 < end && src[r + 1] == QUOTE) {
+							if (direct) {
+								//第一次遇到转义引号：把已读的部分原样复制到 scratch，之后在 scratch 中去转义
+								if (scratch.length < end) {
+									scratch = new byte[Math.max(end, scratch.length * 2)];
+								}
+								System.arraycopy(src, off, scratch, off, r - off);
+								data = scratch;
+								direct = false;
+							}
+							data[w++] = QUOTE;
+							r += 2;
+							continue;
+						}
+						r++;//结束引号
+						break;
+					}
+					if (!direct) {
+						data[w] = b;
+					}
+					w++;
+					r++;
+				}
+				add(start, w - start);
+				//忽略结束引号与分隔符之间的多余字符
+				while (r < end && src[r] != SEPARATOR) {
+					r++;
+				}
+			} else {
+				while (r < end && src[r] != SEPARATOR) {
+					if (!direct) {
+						data[w] = src[r];
+					}
+					w++;
+					r++;
+				}
+				add(start, w - start);
+			}
+			if (r >= end) {
+				break;
+			}
+			r++;//跳过分隔符
+		}
+		return count;
+	}
+
+	/**
+	 * @function 快速跳过一个不需要的列，不复制也不去转义
+	 * @return 该列之后分隔符（或行尾）的位置
+	 */
+	private static int skip(byte[] src, int r, int end) {
+		if (r < end && src[r] == QUOTE) {
+			r++;
+			while (r < end) {
+				if (src[r] == QUOTE) {
+					if (r + 1 < end && src[r + 1] == QUOTE) {
+						r += 2;
+						continue;
+					}
+					r++;
+					break;
+				}
+				r++;
+			}
+		}
+		while (r < end && src[r] != SEPARATOR) {
+			r++;
+		}
+		return r;
+	}
+
+	private void add(int start, int length) {
+		if (count == starts.length) {
+			int[] s = new int[count * 2];
+			int[] l = new int[count * 2];
+			System.arraycopy(starts, 0, s, 0, count);
+			System.arraycopy(lengths, 0, l, 0, count);
+			starts = s;
+			lengths = l;
+		}
+		starts[count] = start;
+		lengths[count] = length;
+		count++;
+	}
+
+	/**
+	 * @return 当前行的列数
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return 各列所在的字节数组，配合 start(i)/length(i) 使用
+	 */
+	public byte[] bytes() {
+		return data;
+	}
+
+	/**
+	 * @param i 列下标
+	 * @return 第 i 列在 bytes() 中的起始位置，未解析的列为 -1
+	 */
+	public int start(int i) {
+		return starts[i];
+	}
+
+	/**
+	 * @param i 列下标
+	 * @return 第 i 列的字节长度
+	 */
+	public int length(int i) {
+		return lengths[i];
+	}
+
+	/**
+	 * @function 将第 i 列的内容放入可复用的 Text 中
+	 * @param i 列下标
+	 * @param target 目标 Text
+	 */
+	public void copy(int i, Text target) {
+		target.set(data, starts[i], lengths[i]);
+	}
+
+	/**
+	 * @function 判断第 i 列是否与给定的 ASCII 字符串相同（忽略大小写）
+	 * @param i 列下标
+	 * @param s 比较的字符串
+	 * @return 相同返回 true
+	 */
+	public boolean equalsIgnoreCase(int i, String s) {
+		int len = lengths[i];
+		if (len != s.length()) {
+			return false;
+		}
+		int start = starts[i];
+		for (int k = 0; k < len; k++) {
+			int a = data[start + k];
+			int b = s.charAt(k);
+			if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @function 将第 i 列转换为字符串（会创建新对象，热点路径中应避免使用）
+	 * @param i 列下标
+	 * @return 第 i 列的字符串
+	 */
+	public String getString(int i) {
+		return new String(data, starts[i], lengths[i], UTF8);
+	}
+
+	/**
+	 * @function 将当前行的所有列转换为字符串数组
+	 * @return 字符串数组
+	 */
+	public String[] toArray() {
+		String[] retVal = new String[count];
+		for (int i = 0; i < count; i++) {
+			retVal[i] = isProjected(i) ? getString(i) : null;
+		}
+		return retVal;
+	}
+}
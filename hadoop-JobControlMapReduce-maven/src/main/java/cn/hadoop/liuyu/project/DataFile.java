@@ -1,18 +1,30 @@
 package cn.hadoop.liuyu.project;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-
-import com.opencsv.CSVReader;    //解析CSV文件格式的包
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.util.LineReader;
+import org.apache.hadoop.util.ReflectionUtils;
 
 /**
  * 
@@ -22,15 +34,259 @@ import com.opencsv.CSVReader;    //解析CSV文件格式的包
  */
 public abstract class DataFile {
 
+	/**
+	 * 为 true 时，分布式缓存中的字典文件已经按 id 排列（增量模式下 id 保持不变），加载时不再排序
+	 */
+	public static final String DICTIONARY_ORDERED = "crime.dictionary.ordered";
+
 	/**
 	 * @function 从 map/reduce job 的输出结果，提取key值集合
+	 * @param fn HDFS上的文件路径，可以是 job 的输出目录
+	 * @return list  key值的集合，已排序且没有重复
+	 * @throws IOException
+	 */
+    public static List<String> extractKeys(String fn,FileSystem fs) throws IOException {
+    	return extractSortedKeys(fn, fs).toList();
+    }
+
+	/**
+	 * @function 从 map/reduce job 的输出结果，提取有序且不重复的key值集合
+	 * 每个 reducer 的输出已经按 key 排序，对所有 part-* 文件做多路归并并在归并时去重，
+	 * 同时打开的只有每个文件的一个读取缓冲区，key 保存在紧凑的 SortedKeys 中；
+	 * 遇到未排序的文件（例如手工生成的文件）时，改为读取全部 key 后排序
+	 * @param fn HDFS上的文件路径，可以是 job 的输出目录
+	 * @return key值的紧凑有序集合
+	 * @throws IOException
+	 */
+    public static SortedKeys extractSortedKeys(String fn, FileSystem fs) throws IOException {
+    	List<Path> files = partFiles(new Path(fn), fs);
+    	SortedKeys retVal = new SortedKeys();
+    	PriorityQueue<KeyStream> queue = new PriorityQueue<KeyStream>(Math.max(1, files.size()), KEY_ORDER);
+    	try {
+    		for (Path file : files) {
+    			KeyStream stream = openKeys(file, fs);
+    			if (stream.next()) {
+    				queue.add(stream);
+    			} else {
+    				stream.close();
+    			}
+    		}
+    		while (!queue.isEmpty()) {
+    			KeyStream stream = queue.poll();
+    			int c = retVal.compareToLast(stream.key.getBytes(), 0, stream.key.getLength());
+    			if (c < 0) {
+    				//输入文件没有排序，无法归并
+    				return sortKeys(files, fs);
+    			}
+    			if (c > 0) {
+    				retVal.add(stream.key.getBytes(), 0, stream.key.getLength());
+    			}
+    			if (stream.next()) {
+    				queue.add(stream);
+    			} else {
+    				stream.close();
+    			}
+    		}
+    		return retVal;
+    	} finally {
+    		for (KeyStream stream : queue) {
+    			stream.close();
+    		}
+    	}
+    }
+
+	/**
+	 * @function 列出 job 输出目录中的 part-* 文件（忽略 _SUCCESS 等文件）；不是目录时返回文件本身
+	 * @param p 目录或文件路径
+	 * @return 文件路径的集合
+	 * @throws IOException
+	 */
+    public static List<Path> partFiles(Path p, FileSystem fs) throws IOException {
+    	List<Path> retVal = new ArrayList<Path>();
+    	if (fs.isDirectory(p)) {
+    		FileStatus[] parts = fs.globStatus(new Path(p, "part-*"));
+    		if (parts != null) {
+    			for (FileStatus part : parts) {
+    				if (part.isFile()) {
+    					retVal.add(part.getPath());
+    				}
+    			}
+    		}
+    		Collections.sort(retVal, PATH_ORDER);
+    	} else {
+    		retVal.add(p);
+    	}
+    	return retVal;
+    }
+
+    private static SortedKeys sortKeys(List<Path> files, FileSystem fs) throws IOException {
+    	List<Text> keys = new ArrayList<Text>();
+    	for (Path file : files) {
+    		KeyStream stream = openKeys(file, fs);
+    		try {
+    			while (stream.next()) {
+    				keys.add(new Text(stream.key));
+    			}
+    		} finally {
+    			stream.close();
+    		}
+    	}
+    	Collections.sort(keys);//Text 按字节排序，与归并的顺序一致
+    	SortedKeys retVal = new SortedKeys();
+    	for (Text key : keys) {
+    		if (retVal.compareToLast(key.getBytes(), 0, key.getLength()) > 0) {
+    			retVal.add(key.getBytes(), 0, key.getLength());
+    		}
+    	}
+    	return retVal;
+    }
+
+    /**
+     * 同一目录中的文件按文件名排序，例如 part-r-00000、part-r-00001 或 dt=2013-03-30、dt=2013-03-31
+     */
+    public static final Comparator<Path> PATH_ORDER = new Comparator<Path>() {
+    	public int compare(Path a, Path b) {
+    		return a.getName().compareTo(b.getName());
+    	}
+    };
+
+    private static final Comparator<KeyStream> KEY_ORDER = new Comparator<KeyStream>() {
+    	public int compare(KeyStream a, KeyStream b) {
+    		return WritableComparator.compareBytes(a.key.getBytes(), 0, a.key.getLength(),
+    				b.key.getBytes(), 0, b.key.getLength());
+    	}
+    };
+
+    private static KeyStream openKeys(Path p, FileSystem fs) throws IOException {
+    	return isSequenceFile(p, fs) ? new SequenceKeyStream(p, fs) : new TextKeyStream(p, fs);
+    }
+
+    /**
+     * 依次读取一个文件中每条记录的 key，key 的字节保存在可重用的 Text 中
+     */
+    private static abstract class KeyStream {
+
+    	protected final Text key = new Text();
+
+    	/**
+    	 * @return 读到下一个 key 返回 true，文件结束返回 false
+    	 */
+    	abstract boolean next() throws IOException;
+
+    	abstract void close() throws IOException;
+    }
+
+    /**
+     * 文本文件：每行第一个制表符之前的部分为 key
+     */
+    private static class TextKeyStream extends KeyStream {
+
+    	private final LineReader reader;
+
+    	private final Text line = new Text();
+
+    	TextKeyStream(Path p, FileSystem fs) throws IOException {
+    		reader = new LineReader(fs.open(p), fs.getConf());
+    	}
+
+    	@Override
+    	boolean next() throws IOException {
+    		if (reader.readLine(line) == 0) {
+    			return false;
+    		}
+    		byte[] b = line.getBytes();
+    		int end = 0;
+    		while (end < line.getLength() && b[end] != '\t') {
+    			end++;
+    		}
+    		key.set(b, 0, end);
+    		return true;
+    	}
+
+    	@Override
+    	void close() throws IOException {
+    		reader.close();
+    	}
+    }
+
+    /**
+     * SequenceFile：只读取记录的 key，跳过 value；key 不是 Text 时使用它的字符串形式
+     */
+    private static class SequenceKeyStream extends KeyStream {
+
+    	private final SequenceFile.Reader reader;
+
+    	private final Writable record;
+
+    	SequenceKeyStream(Path p, FileSystem fs) throws IOException {
+    		reader = new SequenceFile.Reader(fs.getConf(), SequenceFile.Reader.file(fs.makeQualified(p)));
+    		record = (Writable) ReflectionUtils.newInstance(reader.getKeyClass(), fs.getConf());
+    	}
+
+    	@Override
+    	boolean next() throws IOException {
+    		if (!reader.next(record)) {
+    			return false;
+    		}
+    		if (record instanceof Text) {
+    			key.set((Text) record);
+    		} else {
+    			key.set(record.toString());
+    		}
+    		return true;
+    	}
+
+    	@Override
+    	void close() throws IOException {
+    		reader.close();
+    	}
+    }
+
+	/**
+	 * @function 判断文件是否为 SequenceFile（以 "SEQ" 开头）
+	 * @param p 文件路径
+	 * @return 是 SequenceFile 返回 true
+	 * @throws IOException
+	 */
+    public static boolean isSequenceFile(Path p, FileSystem fs) throws IOException {
+    	FSDataInputStream in = fs.open(p);
+    	try {
+    		byte[] magic = new byte[3];
+    		for (int n = 0; n < magic.length; n++) {
+    			int b = in.read();
+    			if (b < 0) {
+    				return false;
+    			}
+    			magic[n] = (byte) b;
+    		}
+    		return magic[0] == 'S' && magic[1] == 'E' && magic[2] == 'Q';
+    	} finally {
+    		in.close();
+    	}
+    }
+
+	/**
+	 * @function 按文件中的顺序读取每条记录的 key（文本文件为每行的第一个字段，SequenceFile 为记录的 key）
 	 * @param fn HDFS上的文件路径
 	 * @return list  key值的集合
 	 * @throws IOException
 	 */
-    public static List<String> extractKeys(String fn,FileSystem fs) throws IOException {
-    	FSDataInputStream in = fs.open(new Path(fn));//打开文件，作为输入流
+    public static List<String> readKeys(String fn,FileSystem fs) throws IOException {
+    	Path p = new Path(fn);
     	List<String> retVal = new ArrayList<String>();//新建存储key值的集合list
+    	if (isSequenceFile(p, fs)) {
+    		SequenceFile.Reader reader = new SequenceFile.Reader(fs.getConf(), SequenceFile.Reader.file(fs.makeQualified(p)));
+    		try {
+    			Writable key = (Writable) ReflectionUtils.newInstance(reader.getKeyClass(), fs.getConf());
+    			while (reader.next(key)) {//只读取 key，跳过 value
+    				retVal.add(key.toString());
+    			}
+    		} finally {
+    			reader.close();
+    		}
+    		return retVal;
+    	}
+    	FSDataInputStream in = fs.open(p);//打开文件，作为输入流
     	//BufferedReader从字符输入流中读取文本，缓冲各个字符，从而提供字符、数组和行的高效读取
     	BufferedReader br = new BufferedReader(new InputStreamReader(in));
     	String line = br.readLine();//按行读取数据
@@ -42,21 +298,94 @@ public abstract class DataFile {
     		line = br.readLine();
     	}
     	br.close();   //关闭缓冲读取器
-    	Collections.sort(retVal);//对key值进行排序
     	return retVal;
     }
     
     /**
      * @function 将 csv文件格式的每行内容转换为数组返回
+     * 兼容旧接口，热点路径中请直接使用 CsvTokenizer
      * @param 读取的一行数据
      * @return array 数组
      * @throws IOException
      */
     public static String[] getColumns(String line) throws IOException {
-    	//初始化CSV格式文件读取器
-		CSVReader reader = new CSVReader(new InputStreamReader(new ByteArrayInputStream(line.getBytes())));
-		String[] retVal = reader.readNext();  //将 csv文件格式的每行内容转换为数组
-		reader.close();
-		return retVal;
+    	CsvTokenizer tokenizer = new CsvTokenizer();
+    	Text text = new Text(line);
+    	tokenizer.tokenize(text);  //将 csv文件格式的每行内容切分为列
+		return tokenizer.toArray();
 	}
+
+    /**
+     * @function 将 map/reduce job 的输出结果作为维度字典放入分布式缓存
+     * @param job 使用该字典的 job
+     * @param fn 输出结果的文件路径
+     * @param name 字典名称，也是 task 工作目录中的链接名称
+     * @throws IOException
+     */
+    public static void addDictionary(Job job, String fn, String name) throws IOException {
+    	Path p = new Path(fn);
+    	URI uri = p.getFileSystem(job.getConfiguration()).makeQualified(p).toUri();
+    	try {
+    		job.addCacheFile(new URI(uri.getScheme(), uri.getAuthority(), uri.getPath(), null, name));
+    	} catch (java.net.URISyntaxException e) {
+    		throw new IOException(e);
+    	}
+    }
+
+    /**
+     * 已加载的维度字典，键为 job ID 和字典名称；MultithreadedMapper 的各线程和重用的 JVM 共用同一份
+     */
+    private static final Map<String, DimensionDictionary> DICTIONARIES = new LinkedHashMap<String, DimensionDictionary>(16, 0.75f, true) {
+    	private static final long serialVersionUID = 1L;
+
+    	@Override
+    	protected boolean removeEldestEntry(Map.Entry<String, DimensionDictionary> eldest) {
+    		return size() > 8;
+    	}
+    };
+
+    /**
+     * @function 在 task 中加载分布式缓存里的维度字典，每个 task 只需在 setup 中调用一次；
+     * 同一个 JVM 中同一个 job 的字典只加载一次，DimensionDictionary 不可变，可以在线程间共用
+     * @param context task 的上下文
+     * @param name 字典名称
+     * @return 维度字典
+     * @throws IOException
+     */
+    public static DimensionDictionary loadDictionary(JobContext context, String name) throws IOException {
+    	if (context.getJobID() == null) {
+    		return readDictionary(context, name);
+    	}
+    	String key = context.getJobID() + "/" + name;
+    	synchronized (DICTIONARIES) {
+    		DimensionDictionary retVal = DICTIONARIES.get(key);
+    		if (retVal == null) {
+    			retVal = readDictionary(context, name);
+    			DICTIONARIES.put(key, retVal);
+    		}
+    		return retVal;
+    	}
+    }
+
+    private static DimensionDictionary readDictionary(JobContext context, String name) throws IOException {
+    	boolean ordered = context.getConfiguration().getBoolean(DICTIONARY_ORDERED, false);
+    	if (new File(name).exists()) {
+    		//分布式缓存已经在 task 工作目录中建立了链接
+    		return loadDictionary(name, FileSystem.getLocal(context.getConfiguration()), ordered);
+    	}
+    	URI[] files = context.getCacheFiles();
+    	if (files != null) {
+    		for (URI uri : files) {
+    			if (name.equals(uri.getFragment())) {
+    				Path p = new Path(uri.getScheme(), uri.getAuthority(), uri.getPath());
+    				return loadDictionary(p.toString(), p.getFileSystem(context.getConfiguration()), ordered);
+    			}
+    		}
+    	}
+    	throw new IOException("Dictionary " + name + " is not in the distributed cache");
+    }
+
+    private static DimensionDictionary loadDictionary(String fn, FileSystem fs, boolean ordered) throws IOException {
+    	return DimensionDictionary.fromKeys(ordered ? readKeys(fn, fs) : extractSortedKeys(fn, fs).asList());
+    }
 }
@@ -0,0 +1,80 @@
+package cn.hadoop.liuyu.project;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ *
+ * @function 日期到维度主键id的并发缓存，以 epoch day（从 1970-01-01 开始的天数）为下标
+ * 常用的日期范围保存在 AtomicIntegerArray 中，读取时不加锁也不创建对象；范围之外的日期保存在 ConcurrentHashMap 中
+ *
+ */
+public class DayIdCache {
+
+	/**
+	 * 数组覆盖的日期范围 [FIRST_DAY, FIRST_DAY + DAYS)：1900-01-01 到 2099-12-31
+	 */
+	private static final int FIRST_DAY = CrimeDate.toEpochDay(19000101);
+
+	private static final int DAYS = CrimeDate.toEpochDay(21000101) - FIRST_DAY;
+
+	/**
+	 * 0 表示没有缓存（数据库的主键id从1开始）
+	 */
+	private final AtomicIntegerArray ids = new AtomicIntegerArray(DAYS);
+
+	private final ConcurrentMap<Integer, Integer> overflow = new ConcurrentHashMap<Integer, Integer>();
+
+	/**
+	 * @param epochDay 从 1970-01-01 开始的天数
+	 * @return 日期对应的主键id，没有缓存时返回 0
+	 */
+	public int get(int epochDay) {
+		int i = epochDay - FIRST_DAY;
+		if (i >= 0 && i < DAYS) {
+			return ids.get(i);
+		}
+		Integer retVal = overflow.get(epochDay);
+		return retVal == null ? 0 : retVal;
+	}
+
+	/**
+	 * @function 缓存日期对应的主键id
+	 * @param epochDay 从 1970-01-01 开始的天数
+	 * @param id 主键id，必须大于 0
+	 */
+	public void put(int epochDay, int id) {
+		int i = epochDay - FIRST_DAY;
+		if (i >= 0 && i < DAYS) {
+			ids.set(i, id);
+		} else {
+			overflow.put(epochDay, id);
+		}
+	}
+
+	/**
+	 * @function 清空缓存
+	 */
+	public void clear() {
+		for (int i = 0; i < DAYS; i++) {
+			ids.set(i, 0);
+		}
+		overflow.clear();
+	}
+
+	/**
+	 * @return 当前缓存内容的副本
+	 */
+	public DayIdCache copy() {
+		DayIdCache retVal = new DayIdCache();
+		for (int i = 0; i < DAYS; i++) {
+			int id = ids.get(i);
+			if (id != 0) {
+				retVal.ids.set(i, id);
+			}
+		}
+		retVal.overflow.putAll(overflow);
+		return retVal;
+	}
+}
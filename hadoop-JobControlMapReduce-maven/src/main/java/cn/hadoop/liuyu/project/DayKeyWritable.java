@@ -0,0 +1,91 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ *
+ * @function 以 yyyymmdd 整数表示的日期 key，序列化为定长 4 个字节
+ * 排序时直接比较序列化后的字节，不需要反序列化
+ *
+ */
+public class DayKeyWritable implements WritableComparable<DayKeyWritable> {
+
+	private int day;
+
+	public DayKeyWritable() {
+	}
+
+	public DayKeyWritable(int day) {
+		this.day = day;
+	}
+
+	/**
+	 * @param day yyyymmdd 格式的日期
+	 */
+	public void set(int day) {
+		this.day = day;
+	}
+
+	/**
+	 * @return yyyymmdd 格式的日期
+	 */
+	public int get() {
+		return day;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(day);
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		day = in.readInt();
+	}
+
+	public int compareTo(DayKeyWritable o) {
+		return day < o.day ? -1 : (day == o.day ? 0 : 1);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof DayKeyWritable && ((DayKeyWritable) o).day == day;
+	}
+
+	@Override
+	public int hashCode() {
+		return day;
+	}
+
+	/**
+	 * @return yyyy/MM/dd 格式的日期，与原来 map/reduce 输出的日期格式一致
+	 */
+	@Override
+	public String toString() {
+		return CrimeDate.format(day);
+	}
+
+	/**
+	 * 直接比较序列化后的 4 个字节
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(DayKeyWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			int d1 = readInt(b1, s1);
+			int d2 = readInt(b2, s2);
+			return d1 < d2 ? -1 : (d1 == d2 ? 0 : 1);
+		}
+	}
+
+	static {
+		WritableComparator.define(DayKeyWritable.class, new Comparator());
+	}
+}
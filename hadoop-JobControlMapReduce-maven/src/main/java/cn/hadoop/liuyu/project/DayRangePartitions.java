@@ -0,0 +1,255 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ *
+ * @function OLAP 预处理 job 的全排序输出：对输入数据的日期抽样，按事件数量的分位点生成分区日期，
+ * 由 TotalOrderPartitioner 把每个日期范围分配给一个 reducer，每个 part-r-* 文件保存一段连续的日期，文件编号与日期顺序一致
+ * 分区点为 (日期, 0, 0)，同一天的单元格总是在同一个文件中；
+ * job 成功后分区点复制到输出目录的 _partitions 文件，按日期范围读取时只需打开相关的文件
+ *
+ */
+public abstract class DayRangePartitions {
+
+	private static Logger log = Logger.getLogger(DayRangePartitions.class.getCanonicalName());
+
+	/**
+	 * 为 true 时 OLAP 预处理 job 按日期全排序输出
+	 */
+	public static final String TOTAL_ORDER = "crime.olap.totalorder";
+
+	/**
+	 * 抽样的记录总数
+	 */
+	public static final String SAMPLE_RECORDS = "crime.olap.sample.records";
+
+	/**
+	 * 最多从多少个输入分片中抽样
+	 */
+	public static final String SAMPLE_SPLITS = "crime.olap.sample.splits";
+
+	/**
+	 * 输出目录中保存分区点的文件
+	 */
+	public static final String PARTITIONS_FILE = "_partitions";
+
+	/**
+	 * @param output job 的输出目录
+	 * @return job 运行前保存分区点的文件，job 的输出目录在运行前不能存在
+	 */
+	public static Path partitionFile(Path output) {
+		return new Path(output.getParent(), "_" + output.getName() + PARTITIONS_FILE);
+	}
+
+	/**
+	 * @function 抽样生成分区点并设置 TotalOrderPartitioner，输入路径必须已经设置
+	 * 样本中不同的日期少于 reducer 个数时减少 reducer 个数；没有样本时保留原来的分区方式
+	 * @param job OLAP 预处理 job
+	 * @param dateColumn 日期所在的列
+	 * @param output job 的输出目录
+	 * @return 设置了全排序返回 true
+	 * @throws IOException
+	 */
+	public static boolean configure(Job job, int dateColumn, Path output) throws IOException {
+		Configuration conf = job.getConfiguration();
+		int[] days = sample(job, dateColumn, conf.getInt(SAMPLE_RECORDS, 100000), conf.getInt(SAMPLE_SPLITS, 100));
+		if (days.length == 0) {
+			log.warning("No dates sampled, keeping the default partitioner.");
+			return false;
+		}
+		int[] splitPoints = splitPoints(days, job.getNumReduceTasks());
+		Path file = partitionFile(output);
+		writeSplitPoints(file.getFileSystem(conf), file, splitPoints, conf);
+		job.setNumReduceTasks(splitPoints.length + 1);
+		job.setPartitionerClass(TotalOrderPartitioner.class);
+		TotalOrderPartitioner.setPartitionFile(conf, file);
+		log.info(MessageFormat.format("{0} date ranges from {1} sampled records.",
+				new Object[] { splitPoints.length + 1, days.length }));
+		return true;
+	}
+
+	/**
+	 * @function 按分位点选出分区日期，每个范围内的事件数量大致相同
+	 * @param days 抽样得到的日期
+	 * @param reducers reducer 的个数
+	 * @return 严格递增的分区日期，最多 reducers - 1 个
+	 */
+	static int[] splitPoints(int[] days, int reducers) {
+		Arrays.sort(days);
+		List<Integer> points = new ArrayList<Integer>();
+		int last = days[0];//第一个范围不能为空
+		for (int i = 1; i < reducers; i++) {
+			int day = days[(int) ((long) i * days.length / reducers)];
+			if (day > last) {
+				points.add(day);
+				last = day;
+			}
+		}
+		int[] retVal = new int[points.size()];
+		for (int i = 0; i < retVal.length; i++) {
+			retVal[i] = points.get(i);
+		}
+		return retVal;
+	}
+
+	/**
+	 * @function 从均匀间隔的输入分片中各读取开头的一部分记录，解析其中的日期
+	 */
+	@SuppressWarnings("unchecked")
+	private static int[] sample(Job job, int dateColumn, int records, int maxSplits) throws IOException {
+		Configuration conf = job.getConfiguration();
+		InputFormat<?, Text> inputFormat;
+		List<InputSplit> splits;
+		try {
+			inputFormat = (InputFormat<?, Text>) ReflectionUtils.newInstance(job.getInputFormatClass(), conf);
+			splits = inputFormat.getSplits(job);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		int samples = Math.max(1, Math.min(maxSplits, splits.size()));
+		int perSplit = Math.max(1, records / samples);
+		CsvTokenizer tokenizer = MapReduceJobBase.projectedTokenizer(dateColumn);
+		int[] retVal = new int[samples * perSplit];
+		int n = 0;
+		for (int s = 0; s < samples && s < splits.size(); s++) {
+			InputSplit split = splits.get((int) ((long) s * splits.size() / samples));
+			TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+			try {
+				RecordReader<?, Text> reader = inputFormat.createRecordReader(split, context);
+				try {
+					reader.initialize(split, context);
+					int taken = 0;
+					while (taken < perSplit && reader.nextKeyValue()) {
+						if (tokenizer.tokenize(reader.getCurrentValue()) >= MapReduceJobBase.MIN_COLUMNS) {
+							int day = CrimeDate.parse(tokenizer.bytes(), tokenizer.start(dateColumn),
+									tokenizer.length(dateColumn));
+							if (day != CrimeDate.INVALID) {
+								retVal[n++] = day;
+								taken++;
+							}
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+		return Arrays.copyOf(retVal, n);
+	}
+
+	private static void writeSplitPoints(FileSystem fs, Path file, int[] splitPoints, Configuration conf)
+			throws IOException {
+		if (fs.exists(file)) {
+			fs.delete(file, false);
+		}
+		SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+				SequenceFile.Writer.file(fs.makeQualified(file)),
+				SequenceFile.Writer.keyClass(CrimeCellWritable.class),
+				SequenceFile.Writer.valueClass(NullWritable.class));
+		try {
+			CrimeCellWritable key = new CrimeCellWritable();
+			for (int day : splitPoints) {
+				key.set(day, 0, 0);//这一天所有的单元格都不小于分区点
+				writer.append(key, NullWritable.get());
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * @function job 成功后把分区点复制到输出目录，供按日期范围读取时使用
+	 * @param conf job 的配置
+	 * @param output job 的输出目录
+	 * @throws IOException
+	 */
+	public static void publish(Configuration conf, Path output) throws IOException {
+		if (!TotalOrderPartitioner.class.getName().equals(conf.get(Job.PARTITIONER_CLASS_ATTR))) {
+			return;
+		}
+		Path file = partitionFile(output);
+		FileSystem fs = file.getFileSystem(conf);
+		if (fs.exists(file)) {
+			FileUtil.copy(fs, file, fs, new Path(output, PARTITIONS_FILE), true, conf);
+		}
+	}
+
+	/**
+	 * @function 列出包含 [fromDay, toDay] 范围内数据的 part-r-* 文件
+	 * 输出目录中没有 _partitions 文件（没有使用全排序）时返回所有文件
+	 * @param fs 文件系统
+	 * @param output OLAP 预处理 job 的输出目录
+	 * @param fromDay yyyymmdd 格式的起始日期（包含）
+	 * @param toDay yyyymmdd 格式的结束日期（包含）
+	 * @return 按日期顺序排列的文件
+	 * @throws IOException
+	 */
+	public static List<Path> partFiles(FileSystem fs, Path output, int fromDay, int toDay) throws IOException {
+		List<Path> files = DataFile.partFiles(output, fs);
+		Path file = new Path(output, PARTITIONS_FILE);
+		if (!fs.exists(file)) {
+			return files;
+		}
+		List<Integer> splitPoints = new ArrayList<Integer>();
+		SequenceFile.Reader reader = new SequenceFile.Reader(fs.getConf(), SequenceFile.Reader.file(fs.makeQualified(file)));
+		try {
+			CrimeCellWritable key = new CrimeCellWritable();
+			while (reader.next(key)) {
+				splitPoints.add(key.getDay());
+			}
+		} finally {
+			reader.close();
+		}
+		List<Path> retVal = new ArrayList<Path>();
+		for (Path part : files) {
+			int i = partition(part);
+			//第 i 个文件的日期范围为 [splitPoints[i - 1], splitPoints[i])
+			boolean afterStart = i >= splitPoints.size() || splitPoints.get(i) > fromDay;
+			boolean beforeEnd = i == 0 || (i - 1 < splitPoints.size() && splitPoints.get(i - 1) <= toDay);
+			if (i < 0 || (afterStart && beforeEnd)) {
+				retVal.add(part);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return part-r-00003 等文件名中的 reducer 编号，无法识别时返回 -1
+	 */
+	private static int partition(Path part) {
+		String name = part.getName();
+		int dash = name.lastIndexOf('-');
+		try {
+			return Integer.parseInt(name.substring(dash + 1));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
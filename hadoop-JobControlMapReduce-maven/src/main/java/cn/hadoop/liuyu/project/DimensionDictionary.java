@@ -0,0 +1,111 @@
+package cn.hadoop.liuyu.project;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ *
+ * @function 不可变的维度字典（犯罪类别、犯罪区域），维度值在字典中的下标即为它的 id
+ * 在每个 task 中加载一次，可以直接用 Text 的字节查找 id，不需要创建字符串
+ *
+ */
+public final class DimensionDictionary {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * 按 id 排列的维度值
+	 */
+	private final String[] names;
+
+	/**
+	 * 按字节排序的维度值编码，以及对应的 id
+	 */
+	private final byte[][] encoded;
+
+	private final int[] ids;
+
+	private DimensionDictionary(String[] names) {
+		this.names = names;
+		int n = names.length;
+		final byte[][] bytes = new byte[n][];
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			bytes[i] = names[i].getBytes(UTF8);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return WritableComparator.compareBytes(bytes[a], 0, bytes[a].length, bytes[b], 0, bytes[b].length);
+			}
+		});
+		encoded = new byte[n][];
+		ids = new int[n];
+		for (int i = 0; i < n; i++) {
+			encoded[i] = bytes[order[i]];
+			ids[i] = order[i];
+		}
+	}
+
+	/**
+	 * @function 由 DataFile.extractKeys 返回的有序 key 集合生成字典
+	 * @param keys 维度值集合，下标即为 id
+	 * @return 字典
+	 */
+	public static DimensionDictionary fromKeys(List<String> keys) {
+		return new DimensionDictionary(keys.toArray(new String[keys.size()]));
+	}
+
+	/**
+	 * @return 维度值的个数
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * @param id 维度值的 id
+	 * @return 维度值
+	 */
+	public String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @param value 维度值
+	 * @return 维度值的 id，不存在时返回 -1
+	 */
+	public int id(Text value) {
+		return id(value.getBytes(), 0, value.getLength());
+	}
+
+	/**
+	 * @function 用字节切片查找维度值的 id
+	 * @param b 字节数组
+	 * @param off 起始位置
+	 * @param len 长度
+	 * @return 维度值的 id，不存在时返回 -1
+	 */
+	public int id(byte[] b, int off, int len) {
+		int low = 0;
+		int high = encoded.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			byte[] e = encoded[mid];
+			int c = WritableComparator.compareBytes(e, 0, e.length, b, off, len);
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return ids[mid];
+			}
+		}
+		return -1;
+	}
+}
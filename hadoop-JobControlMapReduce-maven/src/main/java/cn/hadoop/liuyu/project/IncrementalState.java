@@ -0,0 +1,218 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ *
+ * @function 增量运行的状态，保存在 HDFS 上：
+ * 已经处理到的日期（watermark），以及 id 保持不变的犯罪类别和犯罪区域字典
+ * 输入数据按日期分区存放，例如 crime/dt=2013-03-30/，每次只处理 watermark 之后的分区
+ * 分区中可能有以前日期的迟到记录，所以每批数据还记录开始时 fact 表的最大主键id（_batch），
+ * 重新运行时只删除本批写入的 fact 数据，不影响以前各批加载的同一天的数据
+ *
+ */
+public class IncrementalState {
+
+	/**
+	 * 增量状态目录的配置项
+	 */
+	public static final String STATE_DIR = "crime.incremental.state";
+
+	/**
+	 * 日期分区目录名的前缀
+	 */
+	public static final String PARTITION_PREFIX = "dt=";
+
+	public static final String CATEGORY_DICTIONARY = "categories.dict";
+
+	public static final String DISTRICT_DICTIONARY = "districts.dict";
+
+	private static final String WATERMARK = "_watermark";
+
+	private static final String BATCH = "_batch";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final FileSystem fs;
+
+	private final Path dir;
+
+	/**
+	 * @param fs 文件系统
+	 * @param dir 状态目录
+	 */
+	public IncrementalState(FileSystem fs, Path dir) {
+		this.fs = fs;
+		this.dir = dir;
+	}
+
+	/**
+	 * @return 已经处理到的日期（yyyymmdd），还没有运行过时返回 0
+	 * @throws IOException
+	 */
+	public int readWatermark() throws IOException {
+		Path p = new Path(dir, WATERMARK);
+		if (!fs.exists(p)) {
+			return 0;
+		}
+		List<String> lines = readLines(p);
+		return lines.isEmpty() ? 0 : Integer.parseInt(lines.get(0).trim());
+	}
+
+	/**
+	 * @function 更新 watermark，整个流程成功后才调用，所以重新运行是幂等的；同时结束当前批次
+	 * @param day 已经处理到的日期（yyyymmdd）
+	 * @throws IOException
+	 */
+	public void writeWatermark(int day) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		lines.add(Integer.toString(day));
+		writeLines(new Path(dir, WATERMARK), lines);
+		fs.delete(new Path(dir, BATCH), false);
+	}
+
+	/**
+	 * @function 开始一批数据：记录 fact 表当前的最大主键id，本批写入的 fact 记录的主键都大于它
+	 * 上一次运行在更新 watermark 之前失败时，继续使用那一批记录的值，重新运行时删除它写入的部分数据
+	 * @param maxFactId fact 表当前的最大主键id
+	 * @return 本批数据的起点，只删除主键大于它的 fact 记录
+	 * @throws IOException
+	 */
+	public long beginBatch(long maxFactId) throws IOException {
+		Path p = new Path(dir, BATCH);
+		String watermark = Integer.toString(readWatermark());
+		if (fs.exists(p)) {
+			List<String> lines = readLines(p);
+			if (lines.size() == 2 && lines.get(0).trim().equals(watermark)) {
+				return Long.parseLong(lines.get(1).trim());
+			}
+		}
+		List<String> lines = new ArrayList<String>();
+		lines.add(watermark);
+		lines.add(Long.toString(maxFactId));
+		writeLines(p, lines);
+		return maxFactId;
+	}
+
+	/**
+	 * @param name 字典文件名
+	 * @return 字典文件路径
+	 */
+	public Path dictionaryPath(String name) {
+		return new Path(dir, name);
+	}
+
+	/**
+	 * @function 将新出现的维度值追加到字典末尾，已有维度值的 id（即行号）保持不变
+	 * @param name 字典文件名
+	 * @param keys 本次数据中出现的维度值
+	 * @return 追加的维度值个数
+	 * @throws IOException
+	 */
+	public int mergeDictionary(String name, List<String> keys) throws IOException {
+		Path p = dictionaryPath(name);
+		List<String> dictionary = fs.exists(p) ? readLines(p) : new ArrayList<String>();
+		Set<String> known = new HashSet<String>(dictionary);
+		List<String> added = new ArrayList<String>();
+		for (String key : keys) {
+			if (known.add(key)) {
+				added.add(key);
+			}
+		}
+		if (!added.isEmpty() || !fs.exists(p)) {
+			Collections.sort(added);
+			dictionary.addAll(added);
+			writeLines(p, dictionary);
+		}
+		return added.size();
+	}
+
+	/**
+	 * @function 列出 watermark 之后的日期分区，按日期排序
+	 * @param input 输入数据目录
+	 * @param watermark 已经处理到的日期（yyyymmdd）
+	 * @return 新的日期分区
+	 * @throws IOException
+	 */
+	public List<Path> newPartitions(Path input, int watermark) throws IOException {
+		List<Path> retVal = new ArrayList<Path>();
+		FileSystem inputFs = input.getFileSystem(fs.getConf());
+		for (FileStatus status : inputFs.listStatus(input)) {
+			int day = partitionDay(status.getPath());
+			if (status.isDirectory() && day != CrimeDate.INVALID && day > watermark) {
+				retVal.add(status.getPath());
+			}
+		}
+		Collections.sort(retVal, DataFile.PATH_ORDER);
+		return retVal;
+	}
+
+	/**
+	 * @param partition 日期分区目录，例如 dt=2013-03-30
+	 * @return 分区的日期（yyyymmdd），不是日期分区时返回 INVALID
+	 */
+	public static int partitionDay(Path partition) {
+		String name = partition.getName();
+		if (!name.startsWith(PARTITION_PREFIX) || name.length() != PARTITION_PREFIX.length() + 10) {
+			return CrimeDate.INVALID;
+		}
+		String d = name.substring(PARTITION_PREFIX.length());
+		//yyyy-MM-dd 转换为 MM/dd/yyyy 后解析
+		return CrimeDate.parse(d.substring(5, 7) + "/" + d.substring(8, 10) + "/" + d.substring(0, 4));
+	}
+
+	private List<String> readLines(Path p) throws IOException {
+		List<String> retVal = new ArrayList<String>();
+		FSDataInputStream in = fs.open(p);
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, UTF8));
+		try {
+			String line = br.readLine();
+			while (line != null) {
+				if (line.length() > 0) {
+					retVal.add(line);
+				}
+				line = br.readLine();
+			}
+		} finally {
+			br.close();
+		}
+		return retVal;
+	}
+
+	/**
+	 * @function 先写入临时文件再改名，避免中途失败留下不完整的状态文件
+	 */
+	private void writeLines(Path p, List<String> lines) throws IOException {
+		Path tmp = new Path(p.getParent(), "." + p.getName() + ".tmp");
+		Writer w = new OutputStreamWriter(fs.create(tmp, true), UTF8);
+		try {
+			for (String line : lines) {
+				w.write(line);
+				w.write('\n');
+			}
+		} finally {
+			w.close();
+		}
+		if (fs.exists(p)) {
+			fs.delete(p, false);
+		}
+		if (!fs.rename(tmp, p)) {
+			throw new IOException("Cannot move " + tmp + " to " + p);
+		}
+	}
+}
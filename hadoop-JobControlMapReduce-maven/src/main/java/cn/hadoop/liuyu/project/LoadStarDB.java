@@ -1,144 +1,528 @@
 package cn.hadoop.liuyu.project;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Counters;
 
 /***
  * @function 从 MapReduce 任务中，提取数据，插入到mysql数据库
  */
 public class LoadStarDB {
-	private Connection db = null;//mysql数据库连接
-	private Map<String, Integer> lastPrimaryKey = new HashMap<String, Integer>();
+
+	private static Logger log = Logger.getLogger(LoadStarDB.class.getCanonicalName());
+
+	/**
+	 * 每批提交的记录数
+	 */
+	public static final String BATCH_SIZE = "crime.loader.batch.size";
+
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	/**
+	 * 为 true 时先把每个 part 文件的 fact 数据写入本地 TSV 文件，再用 LOAD DATA 一次加载；
+	 * timeperiod 表仍然逐行插入：fact 记录要引用它生成的 id，而且每年最多 366 行，已有日期由缓存直接读取
+	 */
+	public static final String BULK = "crime.loader.bulk";
+
+	/**
+	 * bulk 模式加载 TSV 文件的语句（MessageFormat 格式，{0} 为文件路径，{1} 为 fact 表的列），
+	 * 默认为 MySQL 的 LOAD DATA LOCAL INFILE，其他数据库可以改为相应的批量导入语句
+	 */
+	public static final String BULK_STATEMENT = "crime.loader.bulk.statement";
+
+	public static final String DEFAULT_BULK_STATEMENT = "load data local infile ''{0}'' into table fact fields terminated by ''\\t'' lines terminated by ''\\n'' ({1})";
+
+	/**
+	 * 数据库连接串和驱动，未设置时连接 MySQL；测试时可以指向嵌入式数据库
+	 */
+	public static final String JDBC_URL = "crime.loader.jdbc.url";
+
+	public static final String JDBC_DRIVER = "crime.loader.jdbc.driver";
+
+	public static final String MYSQL_DRIVER = "com.mysql.jdbc.Driver";
+
+	private static final String FACT_COLUMNS = "district_id, category_id, time_id, crimes";
+
+	/**
+	 * 并行加载 fact 数据的线程数，每个线程使用自己的数据库连接
+	 */
+	public static final String THREADS = "crime.loader.threads";
+
+	public static final int DEFAULT_THREADS = 4;
+
+	private static final String FACT_INSERT = "insert into fact (district_id, category_id, time_id, crimes) values (?, ?, ?, ?)";
+
+	/**
+	 * 删除某一天由本批数据加载的 fact 数据，主键不大于 factMark 的记录属于以前各批
+	 */
+	private static final String FACT_DELETE = "delete from fact where time_id = ? and id > ?";
+
+	/***
+	 * 加载 fact 数据的计数，与 job 的 counter 一样由 PipelineRunner.summary 输出
+	 */
+	public enum LoaderCounters {
+		FACT_ROWS, //加载的 fact 记录数
+		REJECTED_ROWS, //无法解析或维度不在字典中的记录数
+		BATCHES, //提交的批次数（bulk 模式下每个 LOAD DATA 为一批）
+		BATCH_MILLIS, //所有批次的总耗时
+		MAX_BATCH_MILLIS, //最慢的一批的耗时
+		ROWS_PER_SECOND //整个加载过程每秒加载的记录数
+	}
+
+	private Connection db = null;//mysql数据库连接，用于维度表和 timeperiod 表
+	private String url = null;//fact 加载线程使用同一个连接串各自建立连接
 	private List<String> categories = null;//犯罪类别list
 	private List<String> districts = null;//犯罪区域list
+	//字典 id（map/reduce 输出中的下标）到数据库主键id的映射
+	private int[] categoryIds = null;
+	private int[] districtIds = null;
+	private boolean incremental = false;//增量模式：保留已有数据，只追加新的维度和受影响日期的 fact 数据
+	private long factMark = -1;//增量模式：本批数据开始时 fact 表的最大主键id，重新加载某一天时只删除主键更大的记录
+
+	//主键id由数据库生成，插入后通过 getGeneratedKeys 取回
+	private PreparedStatement categoryInsert = null;
+	private PreparedStatement districtInsert = null;
+	private PreparedStatement timeperiodInsert = null;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private boolean bulk = false;
+	private String bulkStatement = DEFAULT_BULK_STATEMENT;
+	private int threads = DEFAULT_THREADS;
 	
-	//映射date主键的关系
-	private final java.util.Map<Date, Integer> timeperiodLookup = new HashMap<Date, Integer>();
-	private final DateFormat df = new SimpleDateFormat("MM/dd/yyyy");//插入数据库的日期格式
-	private final DateFormat kdf = new SimpleDateFormat("yyyy/MM/dd");//从map/reduce任务输出文件中，解析出此日期
+	//映射日期（epoch day）主键的关系，所有 fact 加载线程共用
+	private final DayIdCache timeperiodLookup = new DayIdCache();
+
+	//最近一次 processData 的计数
+	private volatile Counters counters = new Counters();
+
+	//无法加载的记录只限量写入日志，所有 fact 加载线程共用
+	private final SampledLog sampled = new SampledLog(log, SampledLog.DEFAULT_SAMPLES);
 
 	/***
-	 * @function 向数据库表中插入一条记录
-	 * @param table 表名称
-	 * @param row 包含插入字段的数据
+	 * @function 执行插入语句，返回数据库生成的主键id
+	 * @param ps 插入语句，创建时指定了 RETURN_GENERATED_KEYS
 	 * @return 返回此记录的主键id
 	 * @throws SQLException
 	 */
-	private int insert(String table, DataRecord row) throws SQLException {
-		//Statement 是 Java 执行数据库操作的一个重要方法，用于在已经建立数据库连接的基础上，向数据库发送要执行的SQL语句
-		int retVal = 0;
-		Statement s = db.createStatement();
-		StringBuffer sql = new StringBuffer();
-		sql.append("insert into ");
-		sql.append(table);
-		sql.append(" ");
-
-		sql.append(row.toString());
-		s.execute(sql.toString());
-		if (lastPrimaryKey.containsKey(table)) {
-			retVal = lastPrimaryKey.get(table) + 1;
-			lastPrimaryKey.put(table, retVal);
-		} else {
-			lastPrimaryKey.put(table, 1);
-			retVal = 1;
+	private static int insertReturningId(PreparedStatement ps) throws SQLException {
+		ps.executeUpdate();
+		ResultSet rs = ps.getGeneratedKeys();
+		try {
+			if (!rs.next()) {
+				throw new SQLException("No generated key returned");
+			}
+			return rs.getInt(1);
+		} finally {
+			rs.close();
 		}
-		return retVal;
 	}
 
 	/***
-	 * @function 向数据库中插入一条犯罪类别记录
-	 * @param category name字段对应的值
-	 * @return 返回此记录的主键id
+	 * @function 查出维度表中已有的维度值，插入其余的维度值，得到每个字典 id 对应的主键id
+	 * @param table 表名称
+	 * @param insert 插入语句
+	 * @param names 按字典 id 排列的维度值
+	 * @return 下标为字典 id 的主键id数组
 	 * @throws SQLException
 	 */
-	private int insertCategory(String category) throws SQLException {
-		DataRecord dr = new DataRecord();
-		dr.put("name", category);
-		return insert("category", dr);
+	private int[] mapDimension(String table, PreparedStatement insert, List<String> names) throws SQLException {
+		Map<String, Integer> existing = new HashMap<String, Integer>();
+		Statement s = db.createStatement();
+		try {
+			ResultSet rs = s.executeQuery("select id, name from ".concat(table));
+			while (rs.next()) {
+				existing.put(rs.getString(2), rs.getInt(1));
+			}
+		} finally {
+			s.close();
+		}
+		int[] retVal = new int[names.size()];
+		for (int i = 0; i < retVal.length; i++) {
+			Integer id = existing.get(names.get(i));
+			if (id == null) {
+				insert.setString(1, names.get(i));
+				id = insertReturningId(insert);
+			}
+			retVal[i] = id;
+		}
+		db.commit();
+		return retVal;
 	}
 
 	/***
-	 * @function 向数据库中插入一条犯罪区域记录
-	 * @param district name字段对应的值 
-	 * @return 返回此记录的主键id
+	 * @function 如果日期已经存在表中，返回主键id，如果不存在，则插入数据库并返回主键id
+	 * 已有的日期不加锁直接读取，只有新日期才进入 insertTimePeriod
+	 * @param date yyyymmdd 格式的日期
+	 * @return 返回此日期对应的主键id
 	 * @throws SQLException
 	 */
-	private int insertDistrict(String district) throws SQLException {
-		DataRecord dr = new DataRecord();
-		dr.put("name", district);
-		return insert("district", dr);
-	}
-
-	/***
-	 * @function 将日期date拆分为字段 year, month, week, 和 day
-	 * @param dr 包含date被拆分的字段
-	 * @param d 需要拆分的date日期
-	 */
-	private void setTimePeriod(DataRecord dr, Date d) {
-		Calendar cal = Calendar.getInstance();
-		cal.setTime(d);
-		dr.put("year", cal.get(Calendar.YEAR));
-		dr.put("month", cal.get(Calendar.MONTH));
-		dr.put("week", cal.get(Calendar.WEEK_OF_MONTH));
-		dr.put("day", cal.get(Calendar.DAY_OF_MONTH));
+	private int timePeriodId(int date) throws SQLException {
+		int retVal = timeperiodLookup.get(CrimeDate.toEpochDay(date));
+		return retVal != 0 ? retVal : insertTimePeriod(date);
 	}
 
 	/***
-	 * @function 如果日期date已经存在表中，返回主键id，如果不存在，则插入数据库并返回主键id
-	 * @param d 日期date
+	 * @function 插入一个新的日期，日期被拆分为字段 year, month（从0开始，与 Calendar.MONTH 一致）, week, 和 day
+	 * 立即提交后才放入缓存，其他线程引用这个id时记录一定已经存在
+	 * @param date yyyymmdd 格式的日期
 	 * @return 返回此日期对应的主键id
 	 * @throws SQLException
 	 */
-	private int insertTimePeriod(Date d) throws SQLException {
-		int retVal = 0;
-		if (timeperiodLookup.containsKey(d)) {
-			retVal = timeperiodLookup.get(d);
-		} else {
-			DataRecord dr = new DataRecord();
-			setTimePeriod(dr, d);
-			retVal = insert("timeperiod", dr);
-			timeperiodLookup.put(d, retVal);
+	private synchronized int insertTimePeriod(int date) throws SQLException {
+		int epochDay = CrimeDate.toEpochDay(date);
+		int retVal = timeperiodLookup.get(epochDay);
+		if (retVal == 0) {
+			timeperiodInsert.setInt(1, CrimeDate.year(date));
+			timeperiodInsert.setInt(2, CrimeDate.month(date) - 1);
+			timeperiodInsert.setInt(3, CrimeDate.weekOfMonth(date));
+			timeperiodInsert.setInt(4, CrimeDate.dayOfMonth(date));
+			retVal = insertReturningId(timeperiodInsert);
+			db.commit();
+			timeperiodLookup.put(epochDay, retVal);
 		}
 		return retVal;
 	}
 
 	/***
-	 * @function 将数据记录插入fact表中
-	 * @param districtId 犯罪区域外键id
-	 * @param categoryId 犯罪类别外键id
-	 * @param timeId 日期外键id
-	 * @param crimes 在某一日期  某一区域 发生某一犯罪类别的总犯罪次数
-	 * committed in this district of this category at his time* 
-	 * @throws SQLException
+	 * @function 加载一个 part 文件的 fact 数据，使用自己的数据库连接和批量插入
 	 */
-	private void insertFact(int districtId, int categoryId, int timeId,
-			int crimes) throws SQLException {
-		DataRecord dr = new DataRecord();
-		dr.put("district_id", districtId);
-		dr.put("category_id", categoryId);
-		dr.put("time_id", timeId);
-		dr.put("crimes", crimes);
-		insert("fact", dr);
+	private class FactLoader implements Callable<Long> {
+
+		private final Path file;
+
+		private final FileSystem fs;
+
+		//本次加载开始前已经存在的日期
+		private final DayIdCache existingDays;
+
+		private Connection conn = null;
+
+		private PreparedStatement factInsert = null;
+
+		private PreparedStatement factDelete = null;
+
+		private int pending = 0;
+
+		//bulk 模式下 fact 数据写入的本地文件，为 null 时直接批量插入
+		private Writer factFile = null;
+
+		//本次加载中已经处理过的日期
+		private final Set<Integer> loadedDays = new HashSet<Integer>();
+
+		private long rejected = 0;
+
+		private long batches = 0;
+
+		private long batchNanos = 0;
+
+		private long maxBatchNanos = 0;
+
+		FactLoader(Path file, FileSystem fs, DayIdCache existingDays) {
+			this.file = file;
+			this.fs = fs;
+			this.existingDays = existingDays;
+		}
+
+		public Long call() throws IOException, ParseException, SQLException {
+			conn = DriverManager.getConnection(url);
+			try {
+				conn.setAutoCommit(false);
+				factInsert = conn.prepareStatement(FACT_INSERT);
+				if (incremental) {
+					factDelete = conn.prepareStatement(FACT_DELETE);
+				}
+				long retVal;
+				if (bulk) {
+					File facts = File.createTempFile("fact", ".tsv");
+					try {
+						factFile = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(facts), "UTF-8"));
+						try {
+							readData();
+						} finally {
+							factFile.close();
+							factFile = null;
+						}
+						retVal = bulkLoad(facts);
+					} finally {
+						facts.delete();
+					}
+				} else {
+					retVal = readData();
+					flush();
+				}
+				return retVal;
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				try {
+					if (factInsert != null) {
+						factInsert.close();
+					}
+					if (factDelete != null) {
+						factDelete.close();
+					}
+				} finally {
+					conn.close();
+				}
+			}
+		}
+
+		/***
+		 * @function 读取 SanFranciscoCrimPrepOlap 的输出，插入（或写入 TSV 文件）fact 数据
+		 * SequenceFile 中是类型化的 (单元格, 犯罪次数) 记录，文本文件则逐行解析
+		 * @return fact 记录数
+		 */
+		private long readData() throws IOException, ParseException, SQLException {
+			if (DataFile.isSequenceFile(file, fs)) {
+				return readRecords();
+			}
+			long rows = 0;
+			FSDataInputStream in = fs.open(file);//打开数据流
+			BufferedReader br = new BufferedReader(new InputStreamReader(in));//读取数据
+			try {
+				String line = br.readLine();
+				while (line != null) {
+					String[] lp = line.split("\t");
+					if (lp.length == 2) {
+						int d = CrimeDate.parseFormatted(lp[0]);//日期
+						if (d == CrimeDate.INVALID) {
+							throw new ParseException("Unparseable date: " + lp[0], 0);
+						}
+						String[] data = DataFile.getColumns(lp[1]);
+						if (data.length == 3) {
+							try {
+								if (loadRow(d, Integer.parseInt(data[0]), Integer.parseInt(data[1]), Integer.parseInt(data[2]))) {
+									rows++;
+								} else {
+									reject("unknown dimension", line);
+								}
+							} catch (NumberFormatException nfe) {
+								reject("invalid data", line);
+							}
+						} else {
+							reject("invalid data", line);
+						}
+					} else {
+						//没有制表符（例如被截断的 part 文件）或字段过多
+						reject("invalid data", line);
+					}
+					line = br.readLine();
+				}
+			} finally {
+				br.close();
+			}
+			return rows;
+		}
+
+		/***
+		 * @function 读取 SequenceFile 中的 (单元格, 犯罪次数) 记录
+		 * @return fact 记录数
+		 */
+		private long readRecords() throws IOException, SQLException {
+			long rows = 0;
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs.getConf(),
+					SequenceFile.Reader.file(fs.makeQualified(file)));
+			CrimeCellWritable key = new CrimeCellWritable();
+			IntWritable value = new IntWritable();
+			try {
+				while (reader.next(key, value)) {
+					if (loadRow(key.getDay(), key.getCategory(), key.getDistrict(), value.get())) {
+						rows++;
+					} else {
+						reject("unknown dimension", key);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+			return rows;
+		}
+
+		/***
+		 * @function 记录一条无法加载的数据，只有样本写入日志
+		 * @param reason 原因，同一原因的记录一起限量
+		 * @param data 数据
+		 */
+		private void reject(String reason, Object data) {
+			rejected++;
+			if (sampled.sample(reason)) {
+				log.warning(MessageFormat.format("{0}: {1}", new Object[] { reason, data }));
+			}
+		}
+
+		/***
+		 * @function 记录一批数据的提交耗时
+		 * @param start 开始时间（System.nanoTime）
+		 */
+		private void batchDone(long start) {
+			long nanos = System.nanoTime() - start;
+			batches++;
+			batchNanos += nanos;
+			maxBatchNanos = Math.max(maxBatchNanos, nanos);
+		}
+
+		/***
+		 * @function 加载一条 fact 记录
+		 * @param d yyyymmdd 格式的日期
+		 * @param category 犯罪类别字典 id
+		 * @param district 犯罪区域字典 id
+		 * @param crimes 犯罪次数
+		 * @return 维度 id 不在字典中时返回 false，不加载这条记录
+		 */
+		private boolean loadRow(int d, int category, int district, int crimes) throws SQLException, IOException {
+			if (category < 0 || category >= categoryIds.length || district < 0 || district >= districtIds.length) {
+				return false;
+			}
+			int categoryId = categoryIds[category];//犯罪类别id
+			int districtId = districtIds[district];//犯罪区域id
+			int timeId = timePeriodId(d);//时间id
+			if (incremental && loadedDays.add(d) && existingDays.get(CrimeDate.toEpochDay(d)) != 0) {
+				//这一天以前加载过：先删除本批数据上一次运行（中途失败）写入的记录，以前各批的记录保留
+				//同一天的数据只在一个 part 文件中，不会与其他线程冲突
+				deleteFacts(timeId);
+			}
+			insertFact(districtId, categoryId, timeId, crimes);//插入fact表
+			return true;
+		}
+
+		/***
+		 * @function 删除某一天由本批数据加载的 fact 数据，增量加载重新处理这一天时调用，保证重复运行的结果不变
+		 * 与本文件的 fact 数据在同一个事务中提交
+		 * @param timeId 日期外键id
+		 * @throws SQLException
+		 */
+		private void deleteFacts(int timeId) throws SQLException {
+			factDelete.setInt(1, timeId);
+			factDelete.setLong(2, factMark);
+			factDelete.executeUpdate();
+		}
+
+		/***
+		 * @function 将数据记录插入fact表中：bulk 模式下写入 TSV 文件的一行，否则加入批量插入
+		 * @param districtId 犯罪区域外键id
+		 * @param categoryId 犯罪类别外键id
+		 * @param timeId 日期外键id
+		 * @param crimes 在某一日期  某一区域 发生某一犯罪类别的总犯罪次数
+		 * @throws SQLException
+		 * @throws IOException
+		 */
+		private void insertFact(int districtId, int categoryId, int timeId, int crimes)
+				throws SQLException, IOException {
+			if (factFile != null) {
+				factFile.write(districtId + "\t" + categoryId + "\t" + timeId + "\t" + crimes + "\n");
+				return;
+			}
+			factInsert.setInt(1, districtId);
+			factInsert.setInt(2, categoryId);
+			factInsert.setInt(3, timeId);
+			factInsert.setInt(4, crimes);
+			factInsert.addBatch();
+			if (++pending >= batchSize) {
+				flush();
+			}
+		}
+
+		private void flush() throws SQLException {
+			long start = System.nanoTime();
+			if (pending > 0) {
+				factInsert.executeBatch();
+				pending = 0;
+				conn.commit();
+				batchDone(start);
+			} else {
+				conn.commit();
+			}
+		}
+
+		/***
+		 * @function 用一条 LOAD DATA 命令（crime.loader.bulk.statement）加载 TSV 文件；服务器或驱动不允许时改为读取文件批量插入
+		 * @param facts TSV 文件
+		 * @return 加载的记录数
+		 * @throws SQLException
+		 * @throws IOException
+		 */
+		private long bulkLoad(File facts) throws SQLException, IOException {
+			if (facts.length() == 0) {
+				conn.commit();
+				return 0;
+			}
+			Statement s = conn.createStatement();
+			try {
+				long start = System.nanoTime();
+				long retVal = s.executeUpdate(formatBulkStatement(bulkStatement, facts));
+				conn.commit();
+				batchDone(start);
+				return retVal;
+			} catch (SQLException e) {
+				//LOAD DATA 被拒绝时不会写入任何记录，可以安全地改为批量插入
+				log.warning(MessageFormat.format("Bulk load of {0} not allowed ({1}), falling back to batched inserts.",
+						new Object[] { file, e.getMessage() }));
+			} finally {
+				s.close();
+			}
+			long retVal = 0;
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(facts), "UTF-8"));
+			try {
+				String line = br.readLine();
+				while (line != null) {
+					String[] fields = line.split("\t");
+					insertFact(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+							Integer.parseInt(fields[3]));
+					retVal++;
+					line = br.readLine();
+				}
+			} finally {
+				br.close();
+			}
+			flush();
+			return retVal;
+		}
+	}
+
+	/***
+	 * @function 生成加载 TSV 文件的语句，TSV 文件的列顺序与 FACT_COLUMNS 一致
+	 * @param statement crime.loader.bulk.statement 的值
+	 * @param facts TSV 文件
+	 * @return 语句文本
+	 */
+	static String formatBulkStatement(String statement, File facts) {
+		return MessageFormat.format(statement, new Object[] { facts.getAbsolutePath().replace('\\', '/'), FACT_COLUMNS });
 	}
 
 	/***
@@ -152,11 +536,73 @@ public class LoadStarDB {
 			throws IOException, SQLException {
 		categories = DataFile.extractKeys(categoryReport,fs);
 		districts = DataFile.extractKeys(districtReport,fs);
-		for (String category : categories) {
-			insertCategory(category);
+		categoryIds = mapDimension("category", categoryInsert, categories);
+		districtIds = mapDimension("district", districtInsert, districts);
+	}
+
+	/***
+	 * @function 增量模式：字典文件按 id 排列，只插入数据库中还没有的维度值，并读取已有的日期
+	 * @param categoryDictionary 犯罪类别字典文件路径
+	 * @param districtDictionary 犯罪区域字典文件路径
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	private void setupIncremental(String categoryDictionary, String districtDictionary, FileSystem fs)
+			throws IOException, SQLException {
+		categories = DataFile.readKeys(categoryDictionary, fs);
+		districts = DataFile.readKeys(districtDictionary, fs);
+		categoryIds = mapDimension("category", categoryInsert, categories);
+		districtIds = mapDimension("district", districtInsert, districts);
+		loadTimePeriods();
+		factMark = maxFactId();
+	}
+
+	/***
+	 * @return fact 表当前的最大主键id，没有记录时返回0
+	 * @throws SQLException
+	 */
+	public long maxFactId() throws SQLException {
+		Statement s = db.createStatement();
+		try {
+			ResultSet rs = s.executeQuery("select coalesce(max(id), 0) from fact");
+			rs.next();
+			return rs.getLong(1);
+		} finally {
+			s.close();
 		}
-		for (String district : districts) {
-			insertDistrict(district);
+	}
+
+	/***
+	 * @function 设置本批数据的起点，默认为创建加载器时 fact 表的最大主键id；
+	 * 重新运行失败的一批数据时使用那一批开始时的值（IncrementalState.beginBatch）
+	 * @param factMark 本批数据开始时 fact 表的最大主键id
+	 */
+	public void setFactMark(long factMark) {
+		this.factMark = factMark;
+	}
+
+	/***
+	 * @return 本批数据开始时 fact 表的最大主键id，全量模式下为 -1
+	 */
+	public long getFactMark() {
+		return factMark;
+	}
+
+	/***
+	 * @function 读取已有的日期记录预热缓存，避免重复插入同一天
+	 * @throws SQLException
+	 */
+	private void loadTimePeriods() throws SQLException {
+		Statement s = db.createStatement();
+		try {
+			ResultSet rs = s.executeQuery("select id, year, month, day from timeperiod");
+			while (rs.next()) {
+				//month 与 Calendar.MONTH 一致，从0开始
+				int date = rs.getInt(2) * 10000 + (rs.getInt(3) + 1) * 100 + rs.getInt(4);
+				timeperiodLookup.put(CrimeDate.toEpochDay(date), rs.getInt(1));
+			}
+		} finally {
+			s.close();
 		}
 	}
 
@@ -169,6 +615,7 @@ public class LoadStarDB {
 		Statement s = db.createStatement();
 		s.execute("truncate table ".concat(name));
 		s.close();
+		db.commit();
 	}
 
 	/***
@@ -182,6 +629,16 @@ public class LoadStarDB {
 		truncate("timeperiod");
 	}
 
+	/***
+	 * @function 清空 fact 表和 timeperiod 表，重新加载 fact 数据前调用
+	 * @throws SQLException
+	 */
+	public void resetFacts() throws SQLException {
+		truncate("fact");
+		truncate("timeperiod");
+		timeperiodLookup.clear();
+	}
+
 	/***
 	 * @function 解析加载的数据
 	 * @param categoryReport 犯罪类别文件路径
@@ -197,51 +654,221 @@ public class LoadStarDB {
 	public LoadStarDB(String categoryReport, String districtReport,
 			String dbhost, String dbname, String dbuser, String dbpassword,FileSystem fs)
 			throws ClassNotFoundException, SQLException, IOException {
-		Class.forName("com.mysql.jdbc.Driver");
-		String cs = MessageFormat
-				.format("jdbc:mysql://192.168.138.128:3306/HadoopTest?user=root&password=12035318&autoReconnect=true",
-						new Object[] { dbhost, dbname, dbuser, dbpassword });
-		db = DriverManager.getConnection(cs);
-		reset();
-		setup(categoryReport, districtReport,fs);
+		this(categoryReport, districtReport, dbhost, dbname, dbuser, dbpassword, fs, false);
+	}
+
+	/***
+	 * @function 连接数据库；全量模式下清空星型模型，增量模式下不清空已有数据，只追加字典中新增的维度值
+	 * @param categoryDictionary 犯罪类别文件路径（增量模式下为按 id 排列的字典文件）
+	 * @param districtDictionary 犯罪区域文件路径（增量模式下为按 id 排列的字典文件）
+	 * @param dbhost 数据库地址
+	 * @param dbname 数据库名称
+	 * @param dbuser 用户名
+	 * @param dbpassword 密码
+	 * @param incremental 是否为增量模式
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public LoadStarDB(String categoryDictionary, String districtDictionary,
+			String dbhost, String dbname, String dbuser, String dbpassword, FileSystem fs, boolean incremental)
+			throws ClassNotFoundException, SQLException, IOException {
+		this(categoryDictionary, districtDictionary, MYSQL_DRIVER, mysqlUrl(dbhost, dbname, dbuser, dbpassword),
+				fs, incremental);
+	}
+
+	/***
+	 * @function 使用指定的 JDBC 驱动和连接串连接数据库，例如测试时使用的嵌入式数据库
+	 * @param categoryDictionary 犯罪类别文件路径（增量模式下为按 id 排列的字典文件）
+	 * @param districtDictionary 犯罪区域文件路径（增量模式下为按 id 排列的字典文件）
+	 * @param driver JDBC 驱动类名
+	 * @param url JDBC 连接串
+	 * @param incremental 是否为增量模式
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public LoadStarDB(String categoryDictionary, String districtDictionary, String driver, String url,
+			FileSystem fs, boolean incremental) throws ClassNotFoundException, SQLException, IOException {
+		Class.forName(driver);
+		this.url = url;
+		db = DriverManager.getConnection(url);
+		db.setAutoCommit(false);//每一批记录在一个事务中提交
+		categoryInsert = db.prepareStatement("insert into category (name) values (?)", Statement.RETURN_GENERATED_KEYS);
+		districtInsert = db.prepareStatement("insert into district (name) values (?)", Statement.RETURN_GENERATED_KEYS);
+		timeperiodInsert = db.prepareStatement("insert into timeperiod (year, month, week, day) values (?, ?, ?, ?)",
+				Statement.RETURN_GENERATED_KEYS);
+		this.incremental = incremental;
+		if (incremental) {
+			setupIncremental(categoryDictionary, districtDictionary, fs);
+		} else {
+			reset();
+			setup(categoryDictionary, districtDictionary, fs);
+		}
 	}
 
 	/***
 	 * 
 	 * @function 处理 SanFranciscoCrimPrepOlap map/reduce job任务输出结果，填充 timeperiod表和fact表  
-	 * @param dataFile 文件路径
+	 * dataFile 为目录时加载其中所有的 part-* 文件，由 threads 个线程并行加载，每个线程使用自己的连接；
+	 * 每 batchSize 条记录批量发送并提交一次，bulk 模式下每个文件先写入本地 TSV 文件，再执行一次 LOAD DATA；
+	 * 加载的记录数、每秒记录数和批次耗时由 getCounters 取得
+	 * @param dataFile 文件或目录路径
 	 * @throws IOException* 
 	 * @throws ParseException
+	 * @throws SQLException 批量插入失败时回滚未提交的记录
 	 */
-	private void processData(String dataFile,FileSystem fs) throws IOException,
-			ParseException {
-		FSDataInputStream in = fs.open(new Path(dataFile));//打开数据流
-		BufferedReader br = new BufferedReader(new InputStreamReader(in));//读取数据
-		String line = br.readLine();
-		while (line != null) {
-			String[] lp = line.split("\t");
-			if (lp.length > 0) {
-				Date d = kdf.parse(lp[0]);//日期
-				String[] data = DataFile.getColumns(lp[1]);
-				if (data.length == 3) {
-					try {
-						int categoryId = Integer.parseInt(data[0]) + 1;//犯罪类别id
-						int districtId = Integer.parseInt(data[1]) + 1;//犯罪区域id
-						int crimes = Integer.parseInt(data[2]);//犯罪次数
-						int timeId = insertTimePeriod(d);//时间id
-						insertFact(districtId, categoryId, timeId, crimes);//插入fact表
-					} catch (NumberFormatException nfe) {
-						System.err.println("invalid data: " + line);
-					} catch (SQLException e) {
-						e.printStackTrace();
-					}
-				} else {
-					System.err.println("invalid data: " + line);
-				}
+	public void processData(String dataFile,FileSystem fs) throws IOException,
+			ParseException, SQLException {
+		long start = System.currentTimeMillis();
+		counters = new Counters();
+		List<Path> files = DataFile.partFiles(new Path(dataFile), fs);
+		if (files.isEmpty()) {
+			log.warning(MessageFormat.format("No part files in {0}.", new Object[] { dataFile }));
+			return;
+		}
+		DayIdCache existingDays = timeperiodLookup.copy();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+		long rows = 0;
+		List<FactLoader> loaders = new ArrayList<FactLoader>();
+		try {
+			List<Future<Long>> results = new ArrayList<Future<Long>>();
+			for (Path file : files) {
+				FactLoader loader = new FactLoader(file, fs, existingDays);
+				loaders.add(loader);
+				results.add(executor.submit(loader));
+			}
+			for (Future<Long> result : results) {
+				rows += result.get();
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while loading " + dataFile);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof ParseException) {
+				throw (ParseException) cause;
 			}
-			line = br.readLine();
+			throw new IOException("Cannot load " + dataFile, cause);
+		} finally {
+			executor.shutdownNow();
 		}
-		br.close();
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		Counters retVal = new Counters();
+		retVal.findCounter(LoaderCounters.FACT_ROWS).setValue(rows);
+		retVal.findCounter(LoaderCounters.ROWS_PER_SECOND).setValue(rows * 1000 / elapsed);
+		long batchNanos = 0;
+		long maxBatchNanos = 0;
+		for (FactLoader loader : loaders) {
+			retVal.findCounter(LoaderCounters.REJECTED_ROWS).increment(loader.rejected);
+			retVal.findCounter(LoaderCounters.BATCHES).increment(loader.batches);
+			batchNanos += loader.batchNanos;
+			maxBatchNanos = Math.max(maxBatchNanos, loader.maxBatchNanos);
+		}
+		retVal.findCounter(LoaderCounters.BATCH_MILLIS).setValue(batchNanos / 1000000);
+		retVal.findCounter(LoaderCounters.MAX_BATCH_MILLIS).setValue(maxBatchNanos / 1000000);
+		counters = retVal;
+		sampled.summarize();
+		log.info(MessageFormat.format("Loaded {0} fact rows from {1} files in {2} ms ({3} rows/sec).",
+				new Object[] { rows, files.size(), elapsed, rows * 1000 / elapsed }));
+	}
+
+	/***
+	 * @return 最近一次 processData 的计数：加载和拒绝的记录数、每秒记录数、批次数和批次耗时
+	 */
+	public Counters getCounters() {
+		return counters;
+	}
+
+	/***
+	 * @return 下标为字典 id 的犯罪类别主键id数组
+	 */
+	public int[] getCategoryIds() {
+		return categoryIds;
+	}
+
+	/***
+	 * @return 下标为字典 id 的犯罪区域主键id数组
+	 */
+	public int[] getDistrictIds() {
+		return districtIds;
+	}
+
+	/***
+	 * @function 设置并行加载 fact 数据的线程数
+	 * @param threads 线程数
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/***
+	 * @function 设置是否使用 LOAD DATA 加载 fact 表
+	 * @param bulk 为 true 时使用 bulk 模式
+	 */
+	public void setBulk(boolean bulk) {
+		this.bulk = bulk;
+	}
+
+	/***
+	 * @function 设置 bulk 模式加载 TSV 文件的语句
+	 * @param bulkStatement MessageFormat 格式的语句，{0} 为文件路径，{1} 为 fact 表的列
+	 */
+	public void setBulkStatement(String bulkStatement) {
+		this.bulkStatement = bulkStatement;
+	}
+
+	/***
+	 * @function MySQL 连接串：rewriteBatchedStatements 让驱动把一批 insert 改写为一条多行 insert 发送，
+	 * allowLoadLocalInfile 允许 bulk 模式从客户端上传文件
+	 * @return JDBC 连接串
+	 */
+	public static String mysqlUrl(String dbhost, String dbname, String dbuser, String dbpassword) {
+		return MessageFormat.format(
+				"jdbc:mysql://{0}/{1}?user={2}&password={3}&autoReconnect=true&rewriteBatchedStatements=true&allowLoadLocalInfile=true",
+				new Object[] { dbhost, dbname, dbuser, dbpassword });
+	}
+
+	/***
+	 * @function 按配置创建加载器：crime.loader.jdbc.driver、crime.loader.jdbc.url、crime.loader.batch.size、crime.loader.bulk、crime.loader.bulk.statement
+	 * 未配置连接串时使用 dbhost、dbname、dbuser、dbpassword 连接 MySQL
+	 * @return 加载器
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public static LoadStarDB fromConfiguration(Configuration conf, String categoryDictionary, String districtDictionary,
+			String dbhost, String dbname, String dbuser, String dbpassword, FileSystem fs, boolean incremental)
+			throws ClassNotFoundException, SQLException, IOException {
+		LoadStarDB retVal = new LoadStarDB(categoryDictionary, districtDictionary, conf.get(JDBC_DRIVER, MYSQL_DRIVER),
+				conf.get(JDBC_URL, mysqlUrl(dbhost, dbname, dbuser, dbpassword)), fs, incremental);
+		retVal.setBatchSize(conf.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE));
+		retVal.setBulk(conf.getBoolean(BULK, false));
+		retVal.setBulkStatement(conf.get(BULK_STATEMENT, DEFAULT_BULK_STATEMENT));
+		retVal.setThreads(conf.getInt(THREADS, DEFAULT_THREADS));
+		return retVal;
+	}
+
+	/***
+	 * @function 设置每批提交的记录数
+	 * @param batchSize 记录数
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/***
+	 * @function 关闭数据库连接
+	 * @throws SQLException
+	 */
+	public void close() throws SQLException {
+		categoryInsert.close();
+		districtInsert.close();
+		timeperiodInsert.close();
+		db.close();
 	}
 
 	/*** 
@@ -277,55 +904,4 @@ public class LoadStarDB {
 			System.err.println("\nusage: java -jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar com.dynamicalsoftware.olap.etl.LoadStarDB path/to/category/report path/to/district/report path/to/star/data dbhost dbname dbuser dbpassword\n");
 		}
 	}
-
-	/*** 
-	 * 生成一条数据记录
-	 */
-	
-	public class DataRecord extends HashMap<String, Object> {
-		@Override
-		public String toString() {
-			StringBuffer retVal = new StringBuffer();
-			// 生成表的数据字段
-			retVal.append("(");
-			boolean first = true;
-			for (String key : keySet()) {
-				if (first) {
-					first = false;
-				} else {
-					retVal.append(",");
-				}
-				retVal.append(key);
-			}
-			//生成表字段对应的值
-			retVal.append(") values (");
-			first = true;
-			for (String key : keySet()) {
-				Object o = get(key);
-				if (first) {
-					first = false;
-				} else {
-					retVal.append(",");
-				}
-				if (o instanceof Long) {
-					retVal.append(((Long) o).toString());
-				} else if (o instanceof Integer) {
-					retVal.append(((Integer) o).toString());
-				} else if (o instanceof Date) {
-					Date d = (Date) o;
-					retVal.append("'");
-					retVal.append(df.format(d));
-					retVal.append("'");
-				} else if (o instanceof String) {
-					retVal.append("'");
-					retVal.append(o.toString());
-					retVal.append("'");
-				}
-			}
-			retVal.append(")");
-			//返回一条sql格式的数据记录
-			return retVal.toString();
-		}
-	}
 }
-
@@ -1,11 +1,21 @@
 package cn.hadoop.liuyu.project;
 
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.GregorianCalendar;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.map.MultithreadedMapper;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
 /**
  * 
@@ -29,6 +39,11 @@ public  class MapReduceJobBase extends Configured{
 	 * 日期在解析后犯罪历史数据数组的下标为4的位置
 	 */
 	protected static final int DATE_COLUMN_INDEX = 4;
+
+	/**
+	 * 时间（HH:mm）在解析后犯罪历史数据数组的下标为5的位置
+	 */
+	protected static final int TIME_COLUMN_INDEX = 5;
 	
 	/**
 	 * 犯罪区域在解析后犯罪历史数据数组的下标为6的位置
@@ -36,28 +51,130 @@ public  class MapReduceJobBase extends Configured{
 	protected static final int DISTRICT_COLUMN_INDEX = 6;
 
 	/**
-	 * 定义日期的数据格式
+	 * 一行有效的犯罪历史数据至少包含到犯罪区域为止的列
 	 */
-	protected static final DateFormat df = new SimpleDateFormat("MM/dd/yyyy");
-	
+	protected static final int MIN_COLUMNS = DISTRICT_COLUMN_INDEX + 1;
+
+	/**
+	 * 为 true（默认）时中间结果 out1/out2/out3 写为块压缩的 SequenceFile，保存类型化的记录；为 false 时写为文本
+	 */
+	public static final String SEQUENCE_OUTPUT = "crime.output.sequencefile";
+
+	/**
+	 * 中间结果和 map 输出使用的压缩算法
+	 */
+	public static final String OUTPUT_CODEC = "crime.output.codec";
+
+	/**
+	 * 为 true（默认）时用 CrimeCsvInputFormat 按 CSV 记录读取犯罪历史数据，文件头由 RecordReader 跳过；
+	 * 为 false 时用 TextInputFormat 按行读取，由 mapper 逐行判断文件头
+	 */
+	public static final String CSV_INPUT = "crime.input.csv";
+
+	/**
+	 * 每个 map task 中解析犯罪历史数据的线程数，大于 1 时 mapper 由 MultithreadedMapper 运行，
+	 * 每个线程一个 mapper 实例，RecordReader 和输出由各线程同步共用；默认为 1
+	 */
+	public static final String MAP_THREADS = "crime.map.threads";
+
+	/**
+	 * @param conf 配置
+	 * @return 中间结果是否写为 SequenceFile
+	 */
+	public static boolean isSequenceOutput(Configuration conf) {
+		return conf.getBoolean(SEQUENCE_OUTPUT, true);
+	}
+
 	/**
-	 * 定义 map/reduce job结果中，日期的输出格式
+	 * @param conf 配置
+	 * @return 中间结果使用的 OutputFormat
 	 */
-	protected static final DateFormat outputDateFormat = new SimpleDateFormat("yyyy/MM/dd");
+	@SuppressWarnings("rawtypes")
+	protected static Class<? extends FileOutputFormat> outputFormat(Configuration conf) {
+		return isSequenceOutput(conf) ? SequenceFileOutputFormat.class : TextOutputFormat.class;
+	}
+
+	/**
+	 * @param conf 配置
+	 * @return 是否用 CrimeCsvInputFormat 读取犯罪历史数据
+	 */
+	public static boolean isCsvInput(Configuration conf) {
+		return conf.getBoolean(CSV_INPUT, true);
+	}
+
+	/**
+	 * @function 设置读取犯罪历史数据的 InputFormat
+	 * @param job job
+	 */
+	protected static void configureInput(Job job) {
+		if (isCsvInput(job.getConfiguration())) {
+			job.setInputFormatClass(CrimeCsvInputFormat.class);
+		}
+	}
+
+	/**
+	 * @function 设置读取犯罪历史数据的 mapper，crime.map.threads 大于 1 时由 MultithreadedMapper 运行，
+	 * mapreduce.map.cpu.vcores 小于线程数时按线程数申请（mapred-default.xml 中的默认值为 1）
+	 * @param job job
+	 * @param mapper mapper
+	 */
+	protected static <K1, V1, K2, V2> void configureMapper(Job job, Class<? extends Mapper<K1, V1, K2, V2>> mapper) {
+		Configuration conf = job.getConfiguration();
+		int threads = conf.getInt(MAP_THREADS, 1);
+		if (threads > 1) {
+			job.setMapperClass(MultithreadedMapper.class);
+			MultithreadedMapper.setMapperClass(job, mapper);
+			MultithreadedMapper.setNumberOfThreads(job, threads);
+			if (conf.getInt(MRJobConfig.MAP_CPU_VCORES, MRJobConfig.DEFAULT_MAP_CPU_VCORES) < threads) {
+				conf.setInt(MRJobConfig.MAP_CPU_VCORES, threads);
+			}
+		} else {
+			job.setMapperClass(mapper);
+		}
+	}
+
+	/**
+	 * @function 打开 map 输出压缩；SequenceFile 输出时按块压缩
+	 * @param job job
+	 */
+	protected static void configureCompression(Job job) {
+		Configuration conf = job.getConfiguration();
+		Class<? extends CompressionCodec> codec = conf.getClass(OUTPUT_CODEC, DefaultCodec.class, CompressionCodec.class);
+		conf.setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true);
+		conf.setClass(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC, codec, CompressionCodec.class);
+		if (isSequenceOutput(conf)) {
+			FileOutputFormat.setCompressOutput(job, true);
+			FileOutputFormat.setOutputCompressorClass(job, codec);
+			SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+		}
+	}
+
+	/**
+	 * @function 创建只解析指定列的 CSV 解析器，Mapper 在 setup 中声明自己需要的列
+	 * 不需要的列只做快速扫描，扫描到 MIN_COLUMNS 和最大所需列之后即停止
+	 * @param columns Mapper 需要的列下标
+	 * @return 投影后的解析器
+	 */
+	protected static CsvTokenizer projectedTokenizer(int... columns) {
+		CsvTokenizer retVal = new CsvTokenizer();
+		retVal.project(MIN_COLUMNS, columns);
+		return retVal;
+	}
 
 	/**
 	 * @function 将字符串格式的日期转换为自定义Date类型的日期
+	 * 兼容旧接口，热点路径中请直接使用 CrimeDate.parse
 	 * @param value 包含完整的日期字符串
 	 * @return Date类型的日期
 	 * @throws ParseException
 	 */
 	protected static Date getDate(String value) throws ParseException {
-		Date retVal = null;
-		String[] dp = value.split(" ");
-		if (dp.length > 0) {
-			retVal = df.parse(dp[0]);
+		int date = CrimeDate.parse(value);
+		if (date == CrimeDate.INVALID) {
+			throw new ParseException("Unparseable date: \"" + value + "\"", 0);
 		}
-		return retVal;
+		return new GregorianCalendar(CrimeDate.year(date), CrimeDate.month(date) - 1,
+				CrimeDate.dayOfMonth(date)).getTime();
 	}	
 }
 
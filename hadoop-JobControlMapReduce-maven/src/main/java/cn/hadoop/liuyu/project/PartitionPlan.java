@@ -0,0 +1,204 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DefaultStringifier;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ *
+ * @function 按 key 的权重（例如上一次运行的报表中每个 key 的事件次数）预先计算的 reducer 分配方案
+ * 权重超过一个 reducer 平均负载的热点 key 被拆分到多个 reducer，其余 key 按权重从大到小依次分配给当前负载最小的 reducer；
+ * 方案在驱动程序中计算，通过配置传给 SkewAwarePartitioner 和 reducer
+ *
+ */
+public class PartitionPlan implements Writable {
+
+	/**
+	 * 配置中保存方案的名称
+	 */
+	public static final String PLAN = "crime.partition.plan";
+
+	private int numPartitions = 0;
+
+	/**
+	 * key 分配到的 reducer，拆分的热点 key 有多个
+	 */
+	private final Map<Text, int[]> assignment = new HashMap<Text, int[]>();
+
+	public PartitionPlan() {
+	}
+
+	/**
+	 * @function 计算分配方案
+	 * @param weights 每个 key 的权重
+	 * @param numPartitions reducer 的个数
+	 * @param hotFactor 权重超过平均负载的多少倍时拆分 key
+	 * @param maxKeys 方案中最多保存的 key 个数，权重较小的其余 key 仍按 hash 分配
+	 * @return 分配方案
+	 */
+	public static PartitionPlan build(Map<Text, Long> weights, int numPartitions, double hotFactor, int maxKeys) {
+		PartitionPlan retVal = new PartitionPlan();
+		retVal.numPartitions = numPartitions;
+		if (numPartitions < 2 || weights.isEmpty()) {
+			return retVal;
+		}
+		List<Map.Entry<Text, Long>> entries = new ArrayList<Map.Entry<Text, Long>>(weights.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<Text, Long>>() {
+			public int compare(Map.Entry<Text, Long> a, Map.Entry<Text, Long> b) {
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+		long total = 0;
+		for (Map.Entry<Text, Long> entry : entries) {
+			total += entry.getValue();
+		}
+		double target = Math.max(1.0, (double) total / numPartitions);
+		long[] load = new long[numPartitions];
+		//不在方案中的 key 按 hash 分配，先计入对应 reducer 的负载
+		for (int i = maxKeys; i < entries.size(); i++) {
+			load[hashPartition(entries.get(i).getKey(), numPartitions)] += entries.get(i).getValue();
+		}
+		for (int i = 0; i < Math.min(maxKeys, entries.size()); i++) {
+			long weight = entries.get(i).getValue();
+			int splits = 1;
+			if (weight > target * hotFactor) {
+				splits = (int) Math.min(numPartitions, Math.ceil(weight / target));
+			}
+			int[] partitions = leastLoaded(load, splits);
+			for (int p : partitions) {
+				load[p] += weight / splits;
+			}
+			retVal.assignment.put(new Text(entries.get(i).getKey()), partitions);
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return 负载最小的 n 个 reducer
+	 */
+	private static int[] leastLoaded(final long[] load, int n) {
+		List<Integer> order = new ArrayList<Integer>(load.length);
+		for (int i = 0; i < load.length; i++) {
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return load[a] < load[b] ? -1 : (load[a] > load[b] ? 1 : a.compareTo(b));
+			}
+		});
+		int[] retVal = new int[n];
+		for (int i = 0; i < n; i++) {
+			retVal[i] = order.get(i);
+		}
+		return retVal;
+	}
+
+	/**
+	 * @function 与 HashPartitioner 相同的分配方式
+	 * @param key key
+	 * @param numPartitions reducer 的个数
+	 * @return reducer 编号
+	 */
+	public static int hashPartition(Text key, int numPartitions) {
+		return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+	}
+
+	/**
+	 * @return 计算方案时的 reducer 个数，与 job 的 reducer 个数不同时方案无效
+	 */
+	public int getNumPartitions() {
+		return numPartitions;
+	}
+
+	/**
+	 * @param key key
+	 * @return key 分配到的 reducer，不在方案中时返回 null
+	 */
+	public int[] get(Text key) {
+		return assignment.get(key);
+	}
+
+	/**
+	 * @param key key
+	 * @return key 是否被拆分到多个 reducer，拆分的 key 在 reducer 中只得到部分结果，需要再合并
+	 */
+	public boolean isSplit(Text key) {
+		int[] partitions = assignment.get(key);
+		return partitions != null && partitions.length > 1;
+	}
+
+	/**
+	 * @return 被拆分的 key 的个数
+	 */
+	public int splitKeys() {
+		int retVal = 0;
+		for (int[] partitions : assignment.values()) {
+			if (partitions.length > 1) {
+				retVal++;
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * @function 将方案保存到配置中
+	 * @param conf 配置
+	 * @param plan 分配方案
+	 * @throws IOException
+	 */
+	public static void store(Configuration conf, PartitionPlan plan) throws IOException {
+		DefaultStringifier.store(conf, plan, PLAN);
+	}
+
+	/**
+	 * @function 从配置中读取方案
+	 * @param conf 配置
+	 * @return 分配方案，没有方案时返回 null
+	 * @throws IOException
+	 */
+	public static PartitionPlan load(Configuration conf) throws IOException {
+		if (conf.get(PLAN) == null) {
+			return null;
+		}
+		return DefaultStringifier.load(conf, PLAN, PartitionPlan.class);
+	}
+
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, numPartitions);
+		WritableUtils.writeVInt(out, assignment.size());
+		for (Map.Entry<Text, int[]> entry : assignment.entrySet()) {
+			entry.getKey().write(out);
+			WritableUtils.writeVInt(out, entry.getValue().length);
+			for (int p : entry.getValue()) {
+				WritableUtils.writeVInt(out, p);
+			}
+		}
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		assignment.clear();
+		numPartitions = WritableUtils.readVInt(in);
+		int keys = WritableUtils.readVInt(in);
+		for (int i = 0; i < keys; i++) {
+			Text key = new Text();
+			key.readFields(in);
+			int[] partitions = new int[WritableUtils.readVInt(in)];
+			for (int j = 0; j < partitions.length; j++) {
+				partitions[j] = WritableUtils.readVInt(in);
+			}
+			assignment.put(key, partitions);
+		}
+	}
+}
@@ -0,0 +1,394 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+
+/**
+ *
+ * @function 按依赖关系（DAG）运行整个数据处理流程
+ * 没有依赖关系的阶段并行运行；等待阶段完成时阻塞在完成事件上，而不是轮询；
+ * 失败的阶段只重试它自己，已经完成的阶段在重新运行时被跳过
+ * 不使用 ControlledJob/JobControl：流程中的维度表、fact 表入库和 watermark 等阶段不是 MapReduce job；
+ * JobControl 的线程每隔 5 秒轮询一次所有 job 的状态；ControlledJob 失败后不能重新提交，依赖它的 job 全部标记为失败
+ *
+ */
+public class PipelineRunner {
+
+	private static Logger log = Logger.getLogger(PipelineRunner.class.getCanonicalName());
+
+	/**
+	 * 阶段的运行状态
+	 */
+	public enum State {
+		WAITING, RUNNING, SUCCESS, SKIPPED, FAILED, CANCELLED
+	}
+
+	/**
+	 * 流程中的一个阶段，每次尝试都重新执行 execute
+	 */
+	public static abstract class Stage {
+
+		private final String name;
+
+		private final List<Stage> dependencies = new ArrayList<Stage>();
+
+		private volatile State state = State.WAITING;
+
+		private volatile int attempts = 0;
+
+		private volatile long elapsed = 0;
+
+		protected Stage(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @function 声明此阶段依赖的阶段
+		 * @param stages 依赖的阶段
+		 * @return 此阶段
+		 */
+		public Stage dependsOn(Stage... stages) {
+			for (Stage stage : stages) {
+				dependencies.add(stage);
+			}
+			return this;
+		}
+
+		/**
+		 * @function 执行一次此阶段
+		 * @return 成功返回 true
+		 * @throws Exception
+		 */
+		protected abstract boolean execute() throws Exception;
+
+		/**
+		 * @function 判断此阶段的输出是否已经存在，存在时不再运行
+		 * @return 已经完成返回 true
+		 * @throws IOException
+		 */
+		protected boolean isComplete() throws IOException {
+			return false;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public int getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * @return 此阶段所有尝试的总耗时（毫秒）
+		 */
+		public long getElapsed() {
+			return elapsed;
+		}
+
+		/**
+		 * @return 此阶段的计数，没有时返回 null
+		 * @throws IOException
+		 */
+		public Counters getCounters() throws IOException {
+			return null;
+		}
+	}
+
+	/**
+	 * 运行一个 MapReduce job 的阶段，每次尝试都创建新的 job
+	 */
+	public static abstract class JobStage extends Stage {
+
+		private final FileSystem fs;
+
+		private final Path output;
+
+		private volatile Job job = null;
+
+		/**
+		 * @param name 阶段名称
+		 * @param fs 输出所在的文件系统
+		 * @param output job 的输出目录，目录中存在 _SUCCESS 时认为此阶段已经完成
+		 */
+		protected JobStage(String name, FileSystem fs, Path output) {
+			super(name);
+			this.fs = fs;
+			this.output = output;
+		}
+
+		/**
+		 * @function 创建此阶段要运行的 job
+		 * @return job
+		 * @throws IOException
+		 */
+		protected abstract Job createJob() throws IOException;
+
+		/**
+		 * @function job 成功后的处理，例如移动输出文件
+		 * @throws IOException
+		 */
+		protected void onSuccess() throws IOException {
+		}
+
+		@Override
+		protected boolean execute() throws Exception {
+			job = createJob();
+			if (!job.waitForCompletion(true)) {
+				return false;
+			}
+			onSuccess();
+			return true;
+		}
+
+		@Override
+		protected boolean isComplete() throws IOException {
+			return fs.exists(new Path(output, FileOutputCommitter.SUCCEEDED_FILE_NAME));
+		}
+
+		/**
+		 * @return 最近一次尝试运行的 job
+		 */
+		public Job getJob() {
+			return job;
+		}
+
+		@Override
+		public Counters getCounters() throws IOException {
+			return job == null ? null : job.getCounters();
+		}
+	}
+
+	public static final String PARALLELISM = "crime.pipeline.parallelism";
+
+	public static final String STAGE_ATTEMPTS = "crime.pipeline.stage.attempts";
+
+	public static final String RESUME = "crime.pipeline.resume";
+
+	/**
+	 * summary 中输出的计数组
+	 */
+	private static final Class<?>[] SUMMARY_COUNTERS = { CrimeCounters.class, LoadStarDB.LoaderCounters.class };
+
+	private final List<Stage> stages = new ArrayList<Stage>();
+
+	private final int parallelism;
+
+	private final int maxAttempts;
+
+	private final boolean resume;
+
+	/**
+	 * @param parallelism 同时运行的阶段数
+	 * @param maxAttempts 每个阶段最多尝试的次数
+	 * @param resume 为 true 时跳过输出已经存在的阶段，只重新运行失败的阶段
+	 */
+	public PipelineRunner(int parallelism, int maxAttempts, boolean resume) {
+		this.parallelism = parallelism;
+		this.maxAttempts = maxAttempts;
+		this.resume = resume;
+	}
+
+	/**
+	 * @function 按配置创建流程：crime.pipeline.parallelism、crime.pipeline.stage.attempts、crime.pipeline.resume
+	 * @param conf 配置
+	 * @return 流程
+	 */
+	public static PipelineRunner fromConfiguration(Configuration conf) {
+		return new PipelineRunner(conf.getInt(PARALLELISM, 2), conf.getInt(STAGE_ATTEMPTS, 2),
+				conf.getBoolean(RESUME, false));
+	}
+
+	/**
+	 * @function 向流程中加入一个阶段
+	 * @param stage 阶段
+	 * @return 此阶段
+	 */
+	public Stage add(Stage stage) {
+		stages.add(stage);
+		return stage;
+	}
+
+	/**
+	 * @function 运行所有阶段，直到全部结束
+	 * @return 所有阶段都成功（或已完成被跳过）返回 true
+	 * @throws InterruptedException
+	 */
+	public boolean run() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		CompletionService<Stage> completion = new ExecutorCompletionService<Stage>(executor);
+		int running = 0;
+		try {
+			running += submitReady(completion);
+			while (running > 0) {
+				//阻塞等待任意一个阶段结束
+				Future<Stage> done = completion.take();
+				running--;
+				try {
+					done.get();
+				} catch (ExecutionException e) {
+					log.log(Level.SEVERE, "Pipeline stage failed unexpectedly", e.getCause());
+				}
+				running += submitReady(completion);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		//依赖失败的阶段不再运行
+		boolean retVal = true;
+		for (Stage stage : stages) {
+			if (stage.state == State.WAITING) {
+				stage.state = State.CANCELLED;
+			}
+			retVal &= stage.state == State.SUCCESS || stage.state == State.SKIPPED;
+		}
+		return retVal;
+	}
+
+	/**
+	 * @function 提交所有依赖已经满足的阶段
+	 * @return 提交的阶段数
+	 */
+	private int submitReady(CompletionService<Stage> completion) {
+		int retVal = 0;
+		for (final Stage stage : stages) {
+			if (stage.state == State.WAITING && isReady(stage)) {
+				stage.state = State.RUNNING;
+				completion.submit(new Callable<Stage>() {
+					public Stage call() throws Exception {
+						runStage(stage);
+						return stage;
+					}
+				});
+				retVal++;
+			}
+		}
+		return retVal;
+	}
+
+	private static boolean isReady(Stage stage) {
+		for (Stage dependency : stage.dependencies) {
+			if (dependency.state != State.SUCCESS && dependency.state != State.SKIPPED) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void runStage(Stage stage) {
+		long start = System.currentTimeMillis();
+		try {
+			if (resume && stage.isComplete()) {
+				log.info(MessageFormat.format("Stage {0} already complete, skipping.", new Object[] { stage.name }));
+				stage.state = State.SKIPPED;
+				return;
+			}
+			while (stage.attempts < maxAttempts) {
+				stage.attempts++;
+				try {
+					if (stage.execute()) {
+						stage.state = State.SUCCESS;
+						return;
+					}
+					log.warning(MessageFormat.format("Stage {0} attempt {1} failed.",
+							new Object[] { stage.name, stage.attempts }));
+				} catch (Exception e) {
+					log.log(Level.WARNING, MessageFormat.format("Stage {0} attempt {1} failed.",
+							new Object[] { stage.name, stage.attempts }), e);
+				}
+			}
+			stage.state = State.FAILED;
+		} catch (IOException e) {
+			log.log(Level.WARNING, MessageFormat.format("Cannot check stage {0}.", new Object[] { stage.name }), e);
+			stage.state = State.FAILED;
+		} finally {
+			stage.elapsed = System.currentTimeMillis() - start;
+		}
+	}
+
+	/**
+	 * @return 每个阶段的状态和耗时
+	 */
+	public Map<String, Stage> getStages() {
+		Map<String, Stage> retVal = new LinkedHashMap<String, Stage>();
+		for (Stage stage : stages) {
+			retVal.put(stage.name, stage);
+		}
+		return retVal;
+	}
+
+	/**
+	 * @function 生成每个阶段的状态和耗时报表，其后是每个阶段非 0 的记录计数（CrimeCounters 和 LoadStarDB.LoaderCounters）
+	 * @return 报表
+	 */
+	public String summary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-16s %-10s %8s %12s%n", "stage", "state", "attempts", "wall(ms)"));
+		for (Stage stage : stages) {
+			sb.append(String.format("%-16s %-10s %8d %12d%n", stage.name, stage.state, stage.attempts, stage.elapsed));
+		}
+		StringBuilder counters = new StringBuilder();
+		for (Stage stage : stages) {
+			Counters c;
+			try {
+				c = stage.getCounters();
+			} catch (IOException e) {
+				log.log(Level.WARNING, MessageFormat.format("Cannot read counters of stage {0}.",
+						new Object[] { stage.name }), e);
+				continue;
+			}
+			if (c == null) {
+				continue;
+			}
+			for (Class<?> group : SUMMARY_COUNTERS) {
+				if (!hasGroup(c, group.getName())) {
+					continue;
+				}
+				for (Counter counter : c.getGroup(group.getName())) {
+					if (counter.getValue() != 0) {
+						counters.append(String.format("%-16s %-20s %14d%n", stage.name, counter.getName(),
+								counter.getValue()));
+					}
+				}
+			}
+		}
+		if (counters.length() > 0) {
+			sb.append(String.format("%n%-16s %-20s %14s%n", "stage", "counter", "value"));
+			sb.append(counters);
+		}
+		return sb.toString();
+	}
+
+	private static boolean hasGroup(Counters counters, String name) {
+		for (String group : counters.getGroupNames()) {
+			if (group.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,118 @@
+package cn.hadoop.liuyu.project;
+
+import java.text.MessageFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ *
+ * @function 限量记录有问题的数据：每一类问题只完整记录前 crime.log.samples 条，
+ * 之后只在第 2^k 次出现时记录一条，日志量随出现次数对数增长；
+ * 不记录的记录不格式化消息，调用方应先调用 sample 再拼装参数
+ *
+ */
+public class SampledLog {
+
+	/**
+	 * 每一类问题完整记录的条数
+	 */
+	public static final String SAMPLES = "crime.log.samples";
+
+	public static final int DEFAULT_SAMPLES = 10;
+
+	private final Logger log;
+
+	private final int samples;
+
+	//每一类问题出现的次数，只有出现问题的记录才会访问
+	private final Map<Object, long[]> occurrences = new LinkedHashMap<Object, long[]>();
+
+	/**
+	 * @param log 写入的日志
+	 * @param samples 每一类问题完整记录的条数
+	 */
+	public SampledLog(Logger log, int samples) {
+		this.log = log;
+		this.samples = Math.max(0, samples);
+	}
+
+	/**
+	 * @function 按配置 crime.log.samples 创建
+	 * @param log 写入的日志
+	 * @param conf 配置
+	 * @return 限量日志
+	 */
+	public static SampledLog fromConfiguration(Logger log, Configuration conf) {
+		return new SampledLog(log, conf.getInt(SAMPLES, DEFAULT_SAMPLES));
+	}
+
+	/**
+	 * @function 记录一次 kind 类问题
+	 * @param kind 问题的类别，例如 CrimeCounters.BAD_DATE
+	 * @return 这一次需要写入日志时返回 true
+	 */
+	public synchronized boolean sample(Object kind) {
+		long[] count = occurrences.get(kind);
+		if (count == null) {
+			count = new long[1];
+			occurrences.put(kind, count);
+		}
+		long n = ++count[0];
+		return n <= samples || (n & (n - 1)) == 0;
+	}
+
+	/**
+	 * @function 记录一次 kind 类问题，需要时写入一条警告
+	 * @param kind 问题的类别
+	 * @param pattern MessageFormat 格式的消息
+	 * @param arguments 消息参数
+	 */
+	public void warning(Object kind, String pattern, Object[] arguments) {
+		if (sample(kind)) {
+			log.warning(MessageFormat.format(pattern, arguments));
+		}
+	}
+
+	/**
+	 * @param kind 问题的类别
+	 * @return 这一类问题出现的次数
+	 */
+	public synchronized long count(Object kind) {
+		long[] count = occurrences.get(kind);
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * @function 写出每一类问题的总次数和没有记录的次数，在 task 的 cleanup 中调用
+	 */
+	public synchronized void summarize() {
+		for (Map.Entry<Object, long[]> entry : occurrences.entrySet()) {
+			long n = entry.getValue()[0];
+			long logged = logged(n);
+			if (logged < n) {
+				log.warning(MessageFormat.format("{0}: {1} occurrences, {2} logged.",
+						new Object[] { entry.getKey(), n, logged }));
+			}
+		}
+	}
+
+	/**
+	 * @return 出现 n 次时写入日志的条数
+	 */
+	private long logged(long n) {
+		if (n <= samples) {
+			return n;
+		}
+		//samples 之后的 2 的幂
+		long retVal = samples;
+		for (long p = 1; p > 0 && p <= n; p <<= 1) {
+			if (p > samples) {
+				retVal++;
+			}
+		}
+		return retVal;
+	}
+}
@@ -1,28 +1,34 @@
 package cn.hadoop.liuyu.project;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.text.MessageFormat;
-import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
-import java.util.logging.Level;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Logger;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.jobcontrol.ControlledJob;
-import org.apache.hadoop.mapreduce.lib.jobcontrol.JobControl;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.LineReader;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
@@ -38,205 +44,530 @@ public class SanFranciscoCrime extends MapReduceJobBase  implements Tool {
 			.getLogger(SanFranciscoCrime.class.getCanonicalName());
 
 	/**
-	 * CrimeMapper是一个公共的父类
+	 * 犯罪类别报表的维度标记和输出名称
 	 */
-	public static class CrimeMapper extends
-			Mapper<LongWritable, Text, Text, Text> {
+	protected static final byte CATEGORY_TAG = 'C';
 
-		protected int keyID = 0;
+	protected static final String CATEGORY_OUTPUT = "category";
 
-		protected int valueID = 0;
+	/**
+	 * 犯罪区域报表的维度标记和输出名称
+	 */
+	protected static final byte DISTRICT_TAG = 'D';
+
+	protected static final String DISTRICT_OUTPUT = "district";
+
+	/**
+	 * 被拆分到多个 reducer 的热点 key 的部分结果，输出名称为报表名称加上此后缀，由 publishReports 合并
+	 */
+	protected static final String SPLIT_OUTPUT = "split";
+
+	/**
+	 * 报表目录中保存热点 key 合并结果的文件
+	 */
+	protected static final String MERGED_FILE = "part-r-merged";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * 同时输出犯罪类别和犯罪区域两个维度，key的第一个字节为维度标记，value为周时段
+	 * 一次扫描输入数据即可生成两份报表
+	 */
+	public static class CategoryAndDistrictMapByDate extends
+			Mapper<LongWritable, Text, Text, WeekCountsWritable> {
+
+		private CsvTokenizer tokenizer = null;
+
+		private final Text tk = new Text();
+
+		private WeekCountsWritable tv = null;
+
+		private TimeBucketing bucketing = null;
+
+		private final byte[] tag = new byte[1];
+
+		//本线程累计的记录计数，cleanup 时加到 counter 上
+		private final long[] counts = CrimeCounters.newCounts();
+
+		private SampledLog sampled = null;
+
+		//CrimeCsvInputFormat 已经跳过文件头，按行读取时才需要逐行判断
+		private boolean checkHeader = true;
+
+		@Override
+		protected void setup(Context context) {
+			bucketing = TimeBucketing.fromConfiguration(context.getConfiguration());
+			tv = new WeekCountsWritable(bucketing.buckets());
+			if (bucketing.needsTime()) {
+				tokenizer = projectedTokenizer(CATEGORY_COLUMN_INDEX, DATE_COLUMN_INDEX, DISTRICT_COLUMN_INDEX, TIME_COLUMN_INDEX);
+			} else {
+				tokenizer = projectedTokenizer(CATEGORY_COLUMN_INDEX, DATE_COLUMN_INDEX, DISTRICT_COLUMN_INDEX);
+			}
+			sampled = SampledLog.fromConfiguration(log, context.getConfiguration());
+			checkHeader = !isCsvInput(context.getConfiguration());
+		}
 
 		public void map(LongWritable key, Text value, Context context)
 				throws IOException, InterruptedException {
-			String line = value.toString();
-			try { 
-				String[] col = DataFile.getColumns(line); //将 csv文件格式的每行内容转换为数组返回
-				if (col != null) {
-					// 防止数组超界
-					if (col.length >= (DISTRICT_COLUMN_INDEX + 1)) {
-						//过滤文件第一行头部名称
-						if (!"date".equalsIgnoreCase(col[valueID])) {
-							Text tk = new Text();
-							tk.set(col[keyID]);
-							Text tv = new Text();
-							tv.set(col[valueID]);
-							context.write(tk, tv);
-						}
-					} else {
-						log.warning(MessageFormat.format(
-								"Data {0} did not parse into columns.",
-								new Object[] { line }));
+			int columns = tokenizer.tokenize(value);
+			if (columns >= MIN_COLUMNS) {
+				//过滤文件第一行头部名称
+				if (checkHeader && tokenizer.equalsIgnoreCase(DATE_COLUMN_INDEX, "date")) {
+					counts[CrimeCounters.SKIPPED_HEADER.ordinal()]++;
+					return;
+				}
+				int incidentDay = CrimeDate.parse(tokenizer.bytes(),
+						tokenizer.start(DATE_COLUMN_INDEX), tokenizer.length(DATE_COLUMN_INDEX));
+				if (incidentDay != CrimeDate.INVALID) {
+					int bucket = bucket(tokenizer, bucketing, incidentDay);
+					if (bucket >= 0) {
+						tv.set(bucket);
+						write(CATEGORY_TAG, CATEGORY_COLUMN_INDEX, context);
+						write(DISTRICT_TAG, DISTRICT_COLUMN_INDEX, context);
+						counts[CrimeCounters.PARSED.ordinal()]++;
+					} else {//不在配置的日期范围内的事件不计入报表
+						counts[CrimeCounters.OUT_OF_RANGE.ordinal()]++;
 					}
 				} else {
+					counts[CrimeCounters.BAD_DATE.ordinal()]++;
+					if (sampled.sample(CrimeCounters.BAD_DATE)) {
+						log.warning(MessageFormat.format("Invalid date {0}",
+								new Object[] { tokenizer.getString(DATE_COLUMN_INDEX) }));
+					}
+				}
+			} else {
+				counts[CrimeCounters.MALFORMED.ordinal()]++;
+				if (sampled.sample(CrimeCounters.MALFORMED)) {
 					log.warning(MessageFormat.format(
 							"Data {0} did not parse into columns.",
-							new Object[] { line }));
+							new Object[] { value }));
 				}
-			} catch (NumberFormatException nfe) {
-				log.log(Level.WARNING, MessageFormat
-						.format("Expected {0} to be a number.\n",
-								new Object[] { line }), nfe);
-			} catch (IOException e) {
-				log.log(Level.WARNING, MessageFormat.format(
-						"Cannot parse {0} into columns.\n",
-						new Object[] { line }), e);
 			}
 		}
+
+		@Override
+		protected void cleanup(Context context) {
+			CrimeCounters.increment(context, counts);
+			sampled.summarize();
+		}
+
+		private void write(byte dimension, int column, Context context)
+				throws IOException, InterruptedException {
+			tag[0] = dimension;
+			tk.clear();
+			tk.append(tag, 0, 1);
+			tk.append(tokenizer.bytes(), tokenizer.start(column), tokenizer.length(column));
+			context.write(tk, tv);
+		}
 	}
 
 	/**
-	 * 输出key为犯罪类别，value为日期
+	 * @function 计算事件所在的时段，需要时从时间列解析小时
+	 * @param tokenizer 已经切分当前行的解析器
+	 * @param bucketing 时段划分
+	 * @param incidentDay yyyymmdd 格式的日期
+	 * @return 时段编号，不在范围内时返回 -1
 	 */
-	public static class CategoryMapByDate extends CrimeMapper {
-		public CategoryMapByDate() {
-			keyID = CATEGORY_COLUMN_INDEX;//key为犯罪类别
-			valueID = DATE_COLUMN_INDEX;//value为日期
+	protected static int bucket(CsvTokenizer tokenizer, TimeBucketing bucketing, int incidentDay) {
+		int hour = -1;
+		if (bucketing.needsTime()) {
+			hour = CrimeDate.parseHour(tokenizer.bytes(), tokenizer.start(TIME_COLUMN_INDEX),
+					tokenizer.length(TIME_COLUMN_INDEX));
 		}
+		return bucketing.bucket(incidentDay, hour);
 	}
 
 	/**
-	 *  输出key为犯罪区域，value为日期
+	 * 在 map 端按key合并周时段计数，shuffle 时每个map任务的每个key只传输一条记录
 	 */
-	public static class DistrictMapByDate extends CrimeMapper {
-		public DistrictMapByDate() {
-			keyID = DISTRICT_COLUMN_INDEX;//key为犯罪区域
-			valueID = DATE_COLUMN_INDEX;//value为日期
+	public static class CrimeCombinerByWeek extends
+			Reducer<Text, WeekCountsWritable, Text, WeekCountsWritable> {
+
+		private final WeekCountsWritable sum = new WeekCountsWritable();
+
+		public void reduce(Text key, Iterable<WeekCountsWritable> values, Context context)
+				throws IOException, InterruptedException {
+			sum.clear();
+			for (WeekCountsWritable value : values) {
+				sum.add(value);
+			}
+			context.write(key, sum);
 		}
 	}
 
 	/**
-	 * 统计并解析 Mapper 端的输出结果
+	 * 按维度标记拆分 CategoryAndDistrictMapByDate 的输出，分别写入犯罪类别和犯罪区域报表
 	 */
-	public static class CrimeReducerByWeek extends
-			Reducer<Text, Text, Text, Text> {
+	public static class CrimeReportReducer extends
+			Reducer<Text, WeekCountsWritable, Text, Text> {
 
-		public void reduce(Text key, Iterable<Text> values, Context context)
-				throws IOException, InterruptedException {
+		private MultipleOutputs<Text, Text> mos = null;
+
+		private WeekCountsWritable sum = null;
 
-			List<String> incidents = new ArrayList<String>();
-			// 将values放入incidents列表中
-			for (Text value : values) {
-				incidents.add(value.toString());
+		private TimeBucketing bucketing = null;
+
+		private final Text tk = new Text();
+
+		private final Text tv = new Text();
+
+		//SequenceFile 输出时直接写出周时段计数向量，不生成报表字符串
+		private boolean typed = false;
+
+		private PartitionPlan plan = null;
+
+		@Override
+		protected void setup(Context context) throws IOException {
+			mos = new MultipleOutputs<Text, Text>(context);
+			typed = isSequenceOutput(context.getConfiguration());
+			bucketing = TimeBucketing.fromConfiguration(context.getConfiguration());
+			sum = new WeekCountsWritable(bucketing.buckets());
+			plan = PartitionPlan.load(context.getConfiguration());
+			if (plan != null && plan.getNumPartitions() != context.getNumReduceTasks()) {
+				plan = null;//SkewAwarePartitioner 同样不会使用此方案
 			}
-			if (incidents.size() > 0) {
-				//对incidents列表排序
-				Collections.sort(incidents);
-				java.util.Map<Integer, Integer> weekSummary = new HashMap<Integer, Integer>();
-				//因为是对1-3月数据分析，周时段（weekly buckets）最大为15，所以weekSummary长度为15即可
-				for (int i = 0; i < 16; i++) {
-					weekSummary.put(i, 0);
+		}
+
+		public void reduce(Text key, Iterable<WeekCountsWritable> values, Context context)
+				throws IOException, InterruptedException {
+			//去掉维度标记
+			tk.set(key.getBytes(), 1, key.getLength() - 1);
+			tv.set(weekReport(values, sum, bucketing));
+			String name = key.getBytes()[0] == CATEGORY_TAG ? CATEGORY_OUTPUT : DISTRICT_OUTPUT;
+			if (plan != null && plan.isSplit(key)) {
+				//热点 key 在其他 reducer 中还有部分结果，保存计数向量，由 publishReports 合并
+				mos.write(name + SPLIT_OUTPUT, tk, sum, name + SPLIT_OUTPUT + "/part");
+			} else if (typed) {
+				mos.write(name, tk, sum, name + "/part");
+			} else {
+				mos.write(name, tk, tv, name + "/part");
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException,
+				InterruptedException {
+			mos.close();
+		}
+	}
+
+	/**
+	 * @function 合并某一事件的时段计数，按配置的时段划分生成报表
+	 * @param values map/combine 端输出的时段计数
+	 * @param sum 用于累加的计数向量
+	 * @param bucketing 时段划分
+	 * @return 逗号分隔的各时段次数
+	 */
+	protected static String weekReport(Iterable<WeekCountsWritable> values, WeekCountsWritable sum,
+			TimeBucketing bucketing) {
+		sum.clear();
+		for (WeekCountsWritable value : values) {
+			sum.add(value);
+		}
+		return bucketing.report(sum);
+	}
+
+	/**
+	 * @function 创建一次扫描同时生成犯罪类别和犯罪区域报表的 job
+	 * 两份报表先写入临时目录，job 成功后由 publishReports 移动到 out1/out2
+	 * @param conf 配置
+	 * @param inputs 犯罪历史数据路径
+	 * @param staging 临时输出目录
+	 * @return job
+	 * @throws IOException
+	 */
+	public static Job createReportJob(Configuration conf, Path[] inputs, Path staging)
+			throws IOException {
+		Job job = Job.getInstance(conf);
+		job.setJarByClass(SanFranciscoCrime.class);
+
+		configureMapper(job, CategoryAndDistrictMapByDate.class);
+		job.setCombinerClass(CrimeCombinerByWeek.class);
+		job.setReducerClass(CrimeReportReducer.class);
+		job.setMapOutputKeyClass(Text.class);
+		job.setMapOutputValueClass(WeekCountsWritable.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Text.class);
+
+		configureInput(job);
+		FileInputFormat.setInputPaths(job, inputs);
+		FileOutputFormat.setOutputPath(job, staging);
+		//只通过 MultipleOutputs 输出，不生成空的默认 part 文件
+		LazyOutputFormat.setOutputFormatClass(job, outputFormat(conf));
+		Class<?> valueClass = isSequenceOutput(conf) ? WeekCountsWritable.class : Text.class;
+		MultipleOutputs.addNamedOutput(job, CATEGORY_OUTPUT, outputFormat(conf), Text.class, valueClass);
+		MultipleOutputs.addNamedOutput(job, DISTRICT_OUTPUT, outputFormat(conf), Text.class, valueClass);
+		if (conf.getBoolean(SkewAwarePartitioner.SKEW, true)) {
+			//按 crime.partition.plan 分配 key，没有方案时与 HashPartitioner 相同
+			job.setPartitionerClass(SkewAwarePartitioner.class);
+			MultipleOutputs.addNamedOutput(job, CATEGORY_OUTPUT + SPLIT_OUTPUT, SequenceFileOutputFormat.class,
+					Text.class, WeekCountsWritable.class);
+			MultipleOutputs.addNamedOutput(job, DISTRICT_OUTPUT + SPLIT_OUTPUT, SequenceFileOutputFormat.class,
+					Text.class, WeekCountsWritable.class);
+		}
+		configureCompression(job);
+		return job;
+	}
+
+	/**
+	 * @function 根据上一次运行的报表（每个犯罪类别、犯罪区域的事件次数）计算报表 job 的 reducer 分配方案，保存到配置中
+	 * 报表不存在、只有一个 reducer 或关闭了 crime.partition.skew 时不修改配置
+	 * @param conf 配置
+	 * @param fs 文件系统
+	 * @param out1 上一次运行的犯罪类别报表目录
+	 * @param out2 上一次运行的犯罪区域报表目录
+	 * @return 生成了分配方案返回 true
+	 * @throws IOException
+	 */
+	public static boolean planReportPartitions(Configuration conf, FileSystem fs, Path out1, Path out2)
+			throws IOException {
+		int reducers = conf.getInt(MRJobConfig.NUM_REDUCES, 1);
+		if (!conf.getBoolean(SkewAwarePartitioner.SKEW, true) || reducers < 2) {
+			return false;
+		}
+		Map<Text, Long> weights = new HashMap<Text, Long>();
+		readReportWeights(fs, out1, CATEGORY_TAG, weights);
+		readReportWeights(fs, out2, DISTRICT_TAG, weights);
+		if (weights.isEmpty()) {
+			return false;
+		}
+		PartitionPlan plan = PartitionPlan.build(weights, reducers,
+				conf.getFloat(SkewAwarePartitioner.HOT_FACTOR, 1.0f), conf.getInt(SkewAwarePartitioner.PLAN_KEYS, 10000));
+		PartitionPlan.store(conf, plan);
+		log.info(MessageFormat.format("Partition plan for {0} keys over {1} reducers, {2} hot keys split.",
+				new Object[] { weights.size(), reducers, plan.splitKeys() }));
+		return true;
+	}
+
+	/**
+	 * @function 读取报表中每个 key 的事件次数，key 加上维度标记后与 map 输出的 key 一致
+	 */
+	private static void readReportWeights(FileSystem fs, Path report, byte tag, Map<Text, Long> weights)
+			throws IOException {
+		if (!fs.exists(report)) {
+			return;
+		}
+		byte[] prefix = { tag };
+		for (Path file : DataFile.partFiles(report, fs)) {
+			if (DataFile.isSequenceFile(file, fs)) {
+				SequenceFile.Reader reader = new SequenceFile.Reader(fs.getConf(),
+						SequenceFile.Reader.file(fs.makeQualified(file)));
+				try {
+					Text name = new Text();
+					Writable value = (Writable) ReflectionUtils.newInstance(reader.getValueClass(), fs.getConf());
+					while (reader.next(name, value)) {
+						long weight = value instanceof WeekCountsWritable ? ((WeekCountsWritable) value).total()
+								: reportTotal(value.toString());
+						addWeight(weights, prefix, name.getBytes(), 0, name.getLength(), weight);
+					}
+				} finally {
+					reader.close();
 				}
-				//统计每个周时段（weekly buckets）内，该事件发生的次数
-				for (String incidentDay : incidents) {
-					try {
-						Date d = getDate(incidentDay);
-						Calendar cal = Calendar.getInstance();
-						cal.setTime(d);
-						int week = cal.get(Calendar.WEEK_OF_MONTH);//这个月的第几周
-						int month = cal.get(Calendar.MONTH);//第几个月，从0开始
-						//如果累积的时间是以周为时间单位，此系统就称为周时段（weekly buckets）。
-						//周时段的计算公式，最大为15，它只是一种统计方式，不必深究
-						int bucket = (month * 5) + week;
-						//统计每个周时段内，该事件发生的次数
-						if (weekSummary.containsKey(bucket)) {
-							weekSummary.put(bucket, new Integer(weekSummary
-									.get(bucket).intValue() + 1));
-						} else {
-							weekSummary.put(bucket, new Integer(1));
+			} else {
+				LineReader reader = new LineReader(fs.open(file), fs.getConf());
+				try {
+					Text line = new Text();
+					while (reader.readLine(line) > 0) {
+						String s = line.toString();
+						int tab = s.indexOf('\t');
+						if (tab > 0) {
+							byte[] name = s.substring(0, tab).getBytes(UTF8);
+							addWeight(weights, prefix, name, 0, name.length, reportTotal(s.substring(tab + 1)));
 						}
-					} catch (ParseException pe) {
-						log.warning(MessageFormat.format("Invalid date {0}",
-								new Object[] { incidentDay }));
 					}
+				} finally {
+					reader.close();
 				}
-				// 将该事件在每个周时段内发生的次数生成字符串输出
-				StringBuffer rpt = new StringBuffer();
-				boolean first = true;
-				for (int week : weekSummary.keySet()) {
-					if (first) {
-						first = false;
-					} else {
-						rpt.append(",");
+			}
+		}
+	}
+
+	private static void addWeight(Map<Text, Long> weights, byte[] prefix, byte[] name, int off, int len, long weight) {
+		Text key = new Text(prefix);
+		key.append(name, off, len);
+		Long previous = weights.get(key);
+		weights.put(key, previous == null ? weight : previous + weight);
+	}
+
+	/**
+	 * @return 报表字符串中各周时段次数之和
+	 */
+	private static long reportTotal(String report) {
+		long retVal = 0;
+		for (String count : report.split(",")) {
+			try {
+				retVal += Long.parseLong(count.trim());
+			} catch (NumberFormatException e) {
+				//不是报表格式的值不计入权重
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * @function 将临时目录中的两份报表移动到 out1/out2，保持原有的文件布局
+	 * @param fs 文件系统
+	 * @param staging 临时输出目录
+	 * @param out1 犯罪类别报表目录
+	 * @param out2 犯罪区域报表目录
+	 * @throws IOException
+	 */
+	public static void publishReports(FileSystem fs, Path staging, Path out1, Path out2)
+			throws IOException {
+		publishReports(fs.getConf(), fs, staging, out1, out2);
+	}
+
+	/**
+	 * @function 合并被拆分的热点 key 的部分结果，再将临时目录中的两份报表移动到 out1/out2
+	 * @param conf job 的配置，决定合并结果的文件格式
+	 * @param fs 文件系统
+	 * @param staging 临时输出目录
+	 * @param out1 犯罪类别报表目录
+	 * @param out2 犯罪区域报表目录
+	 * @throws IOException
+	 */
+	public static void publishReports(Configuration conf, FileSystem fs, Path staging, Path out1, Path out2)
+			throws IOException {
+		mergeSplits(conf, fs, new Path(staging, CATEGORY_OUTPUT + SPLIT_OUTPUT), new Path(staging, CATEGORY_OUTPUT));
+		mergeSplits(conf, fs, new Path(staging, DISTRICT_OUTPUT + SPLIT_OUTPUT), new Path(staging, DISTRICT_OUTPUT));
+		publish(fs, new Path(staging, CATEGORY_OUTPUT), out1);
+		publish(fs, new Path(staging, DISTRICT_OUTPUT), out2);
+		fs.delete(staging, true);
+	}
+
+	/**
+	 * @function 将热点 key 在各个 reducer 中的部分结果相加，按 key 排序写入报表目录中的一个文件
+	 * 只有被拆分的热点 key 才有部分结果，数量很少，在驱动程序中合并
+	 * @param conf job 的配置
+	 * @param fs 文件系统
+	 * @param splits 部分结果目录
+	 * @param report 报表目录
+	 * @throws IOException
+	 */
+	private static void mergeSplits(Configuration conf, FileSystem fs, Path splits, Path report) throws IOException {
+		if (!fs.exists(splits)) {
+			return;
+		}
+		TreeMap<Text, WeekCountsWritable> merged = new TreeMap<Text, WeekCountsWritable>();
+		for (Path file : DataFile.partFiles(splits, fs)) {
+			SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(fs.makeQualified(file)));
+			try {
+				Text key = new Text();
+				WeekCountsWritable value = new WeekCountsWritable();
+				while (reader.next(key, value)) {
+					WeekCountsWritable sum = merged.get(key);
+					if (sum == null) {
+						sum = new WeekCountsWritable();
+						merged.put(new Text(key), sum);
 					}
-					rpt.append(new Integer(weekSummary.get(week)).toString());
+					sum.add(value);
 				}
-				String list = rpt.toString();
-				Text tv = new Text();
-				tv.set(list);
-				//value为0-15周时段内，该事件发生的次数
-				context.write(key, tv);
+			} finally {
+				reader.close();
 			}
 		}
-	}
-	
-	public int run(String[] args) throws Exception {
-		// 任务1
-		Configuration conf1 = new Configuration();
-		Path out1 = new Path(args[1]);
-		FileSystem hdfs1 = out1.getFileSystem(conf1);
-		if (hdfs1.isDirectory(out1)) {
-			hdfs1.delete(out1, true);
-		}
-		Job job1 =  Job.getInstance(conf1);
-		job1.setJarByClass(SanFranciscoCrime.class);
-
-		job1.setMapperClass(CategoryMapByDate.class);
-		job1.setReducerClass(CrimeReducerByWeek.class);
-		job1.setOutputKeyClass(Text.class);
-		job1.setOutputValueClass(Text.class);
-		
-		FileInputFormat.addInputPath(job1, new Path(args[0]));
-		FileOutputFormat.setOutputPath(job1, new Path(args[1]));
-		
-		// 任务2
-		Configuration conf2 = new Configuration();
-		Path out2 = new Path(args[2]);
-		FileSystem hdfs2 = out2.getFileSystem(conf2);
-		if (hdfs2.isDirectory(out2)) {
-			hdfs2.delete(out2, true);
-		}
-		Job job2 =  Job.getInstance(conf2);
-		job2.setJarByClass(SanFranciscoCrime.class);
-
-		job2.setMapperClass(DistrictMapByDate.class);
-		job2.setReducerClass(CrimeReducerByWeek.class);
-		job2.setOutputKeyClass(Text.class);
-		job2.setOutputValueClass(Text.class);
-		FileInputFormat.addInputPath(job2, new Path(args[0]));
-		FileOutputFormat.setOutputPath(job2, new Path(args[2]));
-
-		// 构造一个 cJob1
-		ControlledJob cJob1 = new ControlledJob(conf1);
-		//设置 MapReduce job1
-		cJob1.setJob(job1);
-
-		// 构造一个 cJob2
-		ControlledJob cJob2 = new ControlledJob(conf2);
-		//设置 MapReduce job2
-		cJob2.setJob(job2);
-		
-		//cJob2.addDependingJob(cJob1);// cjob2依赖cjob1
-		
-		// 定义job管理对象
-		JobControl jobControl = new JobControl("12");
-
-		//把两个构造的job加入到JobControl中
-		jobControl.addJob(cJob1);
-		jobControl.addJob(cJob2);
-
-		//启动线程运行任务
-		Thread t = new Thread(jobControl);
-		t.start();
-		while (true) {
-			if (jobControl.allFinished()) {
-				jobControl.stop();
-				break;
+		Path file = new Path(report, MERGED_FILE);
+		if (isSequenceOutput(conf)) {
+			CompressionCodec codec = ReflectionUtils.newInstance(
+					conf.getClass(OUTPUT_CODEC, DefaultCodec.class, CompressionCodec.class), conf);
+			SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+					SequenceFile.Writer.file(fs.makeQualified(file)),
+					SequenceFile.Writer.keyClass(Text.class),
+					SequenceFile.Writer.valueClass(WeekCountsWritable.class),
+					SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK, codec));
+			try {
+				for (Map.Entry<Text, WeekCountsWritable> entry : merged.entrySet()) {
+					writer.append(entry.getKey(), entry.getValue());
+				}
+			} finally {
+				writer.close();
+			}
+		} else {
+			TimeBucketing bucketing = TimeBucketing.fromConfiguration(conf);
+			FSDataOutputStream out = fs.create(file, true);
+			try {
+				for (Map.Entry<Text, WeekCountsWritable> entry : merged.entrySet()) {
+					out.write(entry.getKey().getBytes(), 0, entry.getKey().getLength());
+					out.write('\t');
+					out.write(bucketing.report(entry.getValue()).getBytes(UTF8));
+					out.write('\n');
+				}
+			} finally {
+				out.close();
 			}
+		}
+		fs.delete(splits, true);
+	}
 
+	private static void publish(FileSystem fs, Path src, Path dst) throws IOException {
+		if (fs.exists(dst)) {
+			fs.delete(dst, true);
+		}
+		if (fs.exists(src)) {
+			if (!fs.rename(src, dst)) {
+				throw new IOException("Cannot move " + src + " to " + dst);
+			}
+		} else {
+			fs.mkdirs(dst);//没有数据时也生成空目录
 		}
-		return 0;
+		fs.create(new Path(dst, FileOutputCommitter.SUCCEEDED_FILE_NAME)).close();
+	}
 
+	/**
+	 * @param out1 犯罪类别报表目录
+	 * @return 生成报表时使用的临时目录
+	 */
+	public static Path reportStagingPath(Path out1) {
+		return new Path(out1.getParent(), "_" + out1.getName() + "_staging");
+	}
+
+	/**
+	 * @function 创建生成犯罪类别和犯罪区域报表的流程阶段
+	 * @param conf 配置，阶段使用创建时的副本，不受并行运行的其他阶段修改的影响
+	 * @param inputs 犯罪历史数据路径
+	 * @param out1 犯罪类别报表目录
+	 * @param out2 犯罪区域报表目录
+	 * @return 流程阶段
+	 * @throws IOException
+	 */
+	public static PipelineRunner.JobStage reportStage(final Configuration conf, final Path[] inputs,
+			final Path out1, final Path out2) throws IOException {
+		final Configuration stageConf = new Configuration(conf);
+		final FileSystem fs = out1.getFileSystem(stageConf);
+		final Path staging = reportStagingPath(out1);
+		return new PipelineRunner.JobStage("reports", fs, out1) {
+			@Override
+			protected Job createJob() throws IOException {
+				if (fs.isDirectory(staging)) {
+					fs.delete(staging, true);
+				}
+				//一个 job 读取一次 crime.csv，同时生成 out1 和 out2
+				Job job = createReportJob(stageConf, inputs, staging);
+				//上一次运行的报表给出每个 key 的事件次数；报表不存在时使用配置中已有的方案
+				planReportPartitions(job.getConfiguration(), fs, out1, out2);
+				return job;
+			}
+
+			@Override
+			protected void onSuccess() throws IOException {
+				publishReports(stageConf, fs, staging, out1, out2);
+			}
+
+			@Override
+			protected boolean isComplete() throws IOException {
+				return super.isComplete() && fs.exists(new Path(out2, FileOutputCommitter.SUCCEEDED_FILE_NAME));
+			}
+		};
+	}
+
+	public int run(String[] args) throws Exception {
+		Configuration conf = getConf();
+		PipelineRunner runner = PipelineRunner.fromConfiguration(conf);
+		runner.add(reportStage(conf, new Path[] { new Path(args[0]) }, new Path(args[1]), new Path(args[2])));
+		//阻塞等待 job 结束，不再轮询 JobControl
+		boolean success = runner.run();
+		System.out.println(runner.summary());
+		return success ? 0 : 1;
 	}
 
 	public static void main(String[] args) throws Exception {
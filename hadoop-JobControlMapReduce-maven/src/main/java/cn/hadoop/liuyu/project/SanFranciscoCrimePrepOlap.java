@@ -1,23 +1,23 @@
 package cn.hadoop.liuyu.project;
 
 import java.io.IOException;
-import java.net.URI;
 import java.text.MessageFormat;
 import java.text.ParseException;
-import java.util.HashMap;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.reduce.IntSumReducer;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 /**
@@ -28,57 +28,103 @@ import org.apache.hadoop.util.ToolRunner;
 public class SanFranciscoCrimePrepOlap extends MapReduceJobBase implements Tool {
 
 	private static Logger log = Logger.getLogger(SanFranciscoCrimePrepOlap.class.getCanonicalName());
-	private static List<String> categories = null;
-	private static List<String> districts = null;
-	private static final java.util.Map<String, Integer> categoryLookup = new HashMap<String, Integer>();
-	private static final java.util.Map<String, Integer> districtLookup = new HashMap<String, Integer>();
-	public static abstract class Map extends Mapper<LongWritable, Text, Text, Text> {
+
+	/**
+	 * 分布式缓存中犯罪类别和犯罪区域字典的名称
+	 */
+	protected static final String CATEGORY_DICTIONARY = "categories";
+	protected static final String DISTRICT_DICTIONARY = "districts";
+
+	public static abstract class Map extends Mapper<LongWritable, Text, CrimeCellWritable, IntWritable> {
 		protected int keyID = 0;
 		protected int valueID = 0;
 		protected int value2ID = 0;
 		
 		/**
 		 * @function 将key值转换为规范的数据格式
-		 * @param value 包含不规范的 key值
-		 * @return 返回规范的key值
+		 * @param b key值所在的字节数组
+		 * @param off 起始位置
+		 * @param len 长度
+		 * @return 返回规范的key值（yyyymmdd 格式的整数）
 		 * @throws ParseException
 		 */
-		protected abstract String formatKey(String value) throws ParseException;
+		protected abstract int formatKey(byte[] b, int off, int len) throws ParseException;
 		
+		private CsvTokenizer tokenizer = null;
+
+		private DimensionDictionary categories = null;
+
+		private DimensionDictionary districts = null;
+
+		private final CrimeCellWritable tk = new CrimeCellWritable();
+
+		private final IntWritable one = new IntWritable(1);
+
+		//本线程累计的记录计数，cleanup 时加到 counter 上
+		private final long[] counts = CrimeCounters.newCounts();
+
+		private SampledLog sampled = null;
+
+		//CrimeCsvInputFormat 已经跳过文件头，按行读取时才需要逐行判断
+		private boolean checkHeader = true;
+
+		/**
+		 * @function 从分布式缓存加载犯罪类别和犯罪区域字典，在 map 端将维度值编码为 id
+		 */
+		@Override
+		protected void setup(Context context) throws IOException {
+			tokenizer = projectedTokenizer(keyID, valueID, value2ID);//只解析日期、犯罪区域和犯罪类型所在的列
+			categories = DataFile.loadDictionary(context, CATEGORY_DICTIONARY);
+			districts = DataFile.loadDictionary(context, DISTRICT_DICTIONARY);
+			sampled = SampledLog.fromConfiguration(log, context.getConfiguration());
+			checkHeader = !isCsvInput(context.getConfiguration());
+		}
+
 		public void map(LongWritable key, Text value, Context context)
 				throws IOException, InterruptedException {
-			String line = value.toString();
-			try {
-				String[] col = DataFile.getColumns(line);//将读取的每行数据转换为数组
-				if (col != null) {
-					if (col.length >= (DISTRICT_COLUMN_INDEX + 1)) {
-						Text tk = new Text();
-						tk.set(formatKey(col[keyID]));//将日期作为key值
-						Text tv = new Text();
-						StringBuffer sv = new StringBuffer();
-						sv.append("\"");
-						sv.append(col[valueID]);//犯罪区域
-						sv.append("\"");
-						sv.append(",");
-						sv.append("\"");
-						sv.append(col[value2ID]);//犯罪类型
-						sv.append("\"");
-						tv.set(sv.toString());
-						context.write(tk, tv);
-					} else {
-						log.warning(MessageFormat.format("Data {0} did not parse into columns.", new Object[]{line}));
+			int columns = tokenizer.tokenize(value);//直接在 Text 的字节缓冲区上切分列
+			if (columns < MIN_COLUMNS) {
+				counts[CrimeCounters.MALFORMED.ordinal()]++;
+				if (sampled.sample(CrimeCounters.MALFORMED)) {
+					log.warning(MessageFormat.format("Data {0} did not parse into columns.", new Object[]{value}));
+				}
+				return;
+			}
+			if (checkHeader && tokenizer.equalsIgnoreCase(keyID, "date")) {//过滤文件第一行头部名称
+				counts[CrimeCounters.SKIPPED_HEADER.ordinal()]++;
+				return;
+			}
+			int cat = categories.id(tokenizer.bytes(), tokenizer.start(value2ID), tokenizer.length(value2ID));//犯罪类型
+			int dist = districts.id(tokenizer.bytes(), tokenizer.start(valueID), tokenizer.length(valueID));//犯罪区域
+			if (cat < 0) {
+				counts[CrimeCounters.UNKNOWN_CATEGORY.ordinal()]++;
+				if (sampled.sample(CrimeCounters.UNKNOWN_CATEGORY)) {
+					log.warning(MessageFormat.format("Category {0} not found.", new Object[]{tokenizer.getString(value2ID)}));
+				}
+			} else if (dist < 0) {
+				counts[CrimeCounters.UNKNOWN_DISTRICT.ordinal()]++;
+				if (sampled.sample(CrimeCounters.UNKNOWN_DISTRICT)) {
+					log.warning(MessageFormat.format("District {0} not found.", new Object[]{tokenizer.getString(valueID)}));
+				}
+			} else {
+				try {
+					tk.set(formatKey(tokenizer.bytes(), tokenizer.start(keyID), tokenizer.length(keyID)), cat, dist);//(日期, 犯罪类别id, 犯罪区域id)作为key值
+					context.write(tk, one);
+					counts[CrimeCounters.PARSED.ordinal()]++;
+				} catch (ParseException e) {
+					counts[CrimeCounters.BAD_DATE.ordinal()]++;
+					if (sampled.sample(CrimeCounters.BAD_DATE)) {
+						log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a date but it was not.", new Object[]{value}), e);
 					}
-				} else {
-					log.warning(MessageFormat.format("Data {0} did not parse into columns.", new Object[]{line}));
 				}
-			} catch (NumberFormatException nfe) {
-				log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a number.\n", new Object[]{line}), nfe);
-			} catch (IOException e) {
-				log.log(Level.WARNING, MessageFormat.format("Cannot parse {0} into columns.\n", new Object[]{line}), e);
-			} catch (ParseException e) {
-				log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a date but it was not.\n", new Object[]{line}), e);
 			}
 		}
+
+		@Override
+		protected void cleanup(Context context) {
+			CrimeCounters.increment(context, counts);
+			sampled.summarize();
+		}
 	}
 	
 	/**
@@ -92,79 +138,211 @@ public class SanFranciscoCrimePrepOlap extends MapReduceJobBase implements Tool
 		}
 
 		@Override
-		protected String formatKey(String value) throws ParseException {
-			return outputDateFormat.format(getDate(value));
+		protected int formatKey(byte[] b, int off, int len) throws ParseException {
+			int retVal = CrimeDate.parse(b, off, len);
+			if (retVal == CrimeDate.INVALID) {
+				throw new ParseException("Unparseable date", off);
+			}
+			return retVal;
 		}
 	}
 	
-	public static class Reduce extends Reducer<Text, Text, Text, Text> {
-		public void reduce(Text key, Iterable<Text> values, Context context)
+	/**
+	 * @function 按日期分区，同一天的所有单元格由同一个 reducer 输出
+	 * 按从 1970-01-01 开始的天数取模，连续的日期轮流分配给每个 reducer；
+	 * yyyymmdd 整数在月末和年末不连续，直接取模时各 reducer 分到的天数不均匀
+	 */
+	public static class DayPartitioner extends Partitioner<CrimeCellWritable, IntWritable> {
+		@Override
+		public int getPartition(CrimeCellWritable key, IntWritable value, int numPartitions) {
+			return (CrimeDate.toEpochDay(key.getDay()) & Integer.MAX_VALUE) % numPartitions;
+		}
+	}
+
+	/**
+	 * @function 合并单元格计数后输出，只有非 0 的单元格会到达 reducer，内存占用与单元格个数无关
+	 */
+	public static class Reduce extends Reducer<CrimeCellWritable, IntWritable, DayKeyWritable, Text> {
+		private final DayKeyWritable tk = new DayKeyWritable();
+		private final Text tv = new Text();
+		private final StringBuilder sv = new StringBuilder();
+
+		public void reduce(CrimeCellWritable key, Iterable<IntWritable> values, Context context)
 				throws IOException, InterruptedException {
-						// 分配和初始化犯罪类型所在区域的二维数组
-						int[][] crimes = new int[categories.size()][districts.size()];
-						for (int i = 0; i < categories.size(); i++) {
-							for (int j = 0; j < districts.size(); j++) {
-								crimes[i][j] = 0;
-							}
-						}
-						//统计犯罪类型/区域二维数组的值（即每种犯罪类型在每个区域发生的次数）
-						for (Text crime:values) {
-							String[] cols = DataFile.getColumns(crime.toString());
-							if (cols.length == 2) {
-								if (categoryLookup.containsKey(cols[1])) {
-									if (districtLookup.containsKey(cols[0])) {
-										int cat = categoryLookup.get(cols[1]);
-										int dist = districtLookup.get(cols[0]);
-										crimes[cat][dist]++;
-									} else {
-										log.warning(MessageFormat.format("District {0} not found.", new Object[]{cols[0]}));
-									}
-								} else {
-									log.warning(MessageFormat.format("Category {0} not found.", new Object[]{cols[1]}));
-								}
-							} else {
-								log.warning(MessageFormat.format("Input {0} was in unexpected format", new Object[]{crime}));
-							}
-						}
-						//将非0二维数组的犯罪类别下标，犯罪区域下标，犯罪次数作为value输出
-						for (int i = 0; i < categories.size(); i++) {
-							for (int j = 0; j < districts.size(); j++) {
-								if (crimes[i][j] > 0) {
-									StringBuffer sv = new StringBuffer();
-									sv.append(new Integer(i).toString());//犯罪类别下标
-									sv.append(",");
-									sv.append(new Integer(j).toString());//犯罪区域下标
-									sv.append(",");
-									sv.append(new Integer(crimes[i][j]));//犯罪次数
-									Text tv = new Text();
-									tv.set(sv.toString());
-									context.write(key, tv);
-								}
-							}
-						}
+			int crimes = 0;
+			for (IntWritable value : values) {
+				crimes += value.get();
+			}
+			//将犯罪类别下标，犯罪区域下标，犯罪次数作为value输出
+			sv.setLength(0);
+			sv.append(key.getCategory());//犯罪类别下标
+			sv.append(",");
+			sv.append(key.getDistrict());//犯罪区域下标
+			sv.append(",");
+			sv.append(crimes);//犯罪次数
+			tk.set(key.getDay());
+			tv.set(sv.toString());
+			context.write(tk, tv);
 		}
 	}
+
 	/**
-	 * @function 加载已经生成的 犯罪类别数据和犯罪区域数据，并将这些数据排序后存入Map
+	 * @function 创建统计每天每种犯罪类型在每个区域发生次数的 job
+	 * 犯罪类别和犯罪区域报表通过分布式缓存分发给每个 task，在集群上也能正常运行
+	 * @param conf 配置
+	 * @param inputs 犯罪历史数据路径
 	 * @param categoryReport SanFranciscoCrime job任务输出犯罪类别的文件路径
 	 * @param districtReport SanFranciscoCrime job任务输出犯罪区域的文件路径
+	 * @param output 输出路径
+	 * @return job
 	 * @throws IOException
 	 */
-	private static void  setup(String categoryReport, String districtReport,FileSystem fs) throws IOException {
-		categories = DataFile.extractKeys(categoryReport,fs);
-		districts = DataFile.extractKeys(districtReport,fs);
-		int i = 0;
-		for (String category : categories) {
-			categoryLookup.put(category, i++);
+	public static Job createJob(Configuration conf, Path[] inputs, String categoryReport,
+			String districtReport, Path output) throws IOException {
+		Job job = Job.getInstance(conf);
+		job.setJarByClass(SanFranciscoCrimePrepOlap.class);
+
+		configureMapper(job, DateMapByCategoryAndDistrict.class);//Mapper
+		job.setCombinerClass(IntSumReducer.class);//在 map 端合并每个单元格的计数
+		job.setPartitionerClass(DayPartitioner.class);
+		job.setMapOutputKeyClass(CrimeCellWritable.class);
+		job.setMapOutputValueClass(IntWritable.class);
+		if (isSequenceOutput(conf)) {
+			//SequenceFile 中直接保存 (单元格, 犯罪次数)，读取时不需要再解析文本
+			job.setReducerClass(IntSumReducer.class);
+			job.setOutputKeyClass(CrimeCellWritable.class);
+			job.setOutputValueClass(IntWritable.class);
+		} else {
+			job.setReducerClass(Reduce.class);//Reducer
+			job.setOutputKeyClass(DayKeyWritable.class);
+			job.setOutputValueClass(Text.class);
 		}
-		i = 0;
-		for (String district : districts) {
-			districtLookup.put(district, i++);
+		job.setOutputFormatClass(outputFormat(conf));
+		configureCompression(job);
+
+		DataFile.addDictionary(job, categoryReport, CATEGORY_DICTIONARY);
+		DataFile.addDictionary(job, districtReport, DISTRICT_DICTIONARY);
+
+		configureInput(job);
+		FileInputFormat.setInputPaths(job, inputs);
+		FileOutputFormat.setOutputPath(job, output);
+		if (conf.getBoolean(DayRangePartitions.TOTAL_ORDER, false)) {
+			//每个 part-r-* 文件保存一段连续的日期
+			DayRangePartitions.configure(job, DATE_COLUMN_INDEX, output);
+		}
+		return job;
+	}
+
+	/**
+	 * @function 创建直接写入星型模型的 job：reducer 输出 (单元格, 犯罪次数)，由 StarSchemaOutputFormat 写入 fact 表
+	 * 维度表必须已经加载，并通过 StarSchemaOutputFormat.setDimensionIds 把主键id映射写入 conf
+	 * @param conf 配置，包含数据库连接串和维度主键id
+	 * @param inputs 犯罪历史数据路径
+	 * @param categoryReport 犯罪类别字典文件路径
+	 * @param districtReport 犯罪区域字典文件路径
+	 * @param output 只用于记录 _SUCCESS 的输出路径
+	 * @return job
+	 * @throws IOException
+	 */
+	public static Job createDirectJob(Configuration conf, Path[] inputs, String categoryReport,
+			String districtReport, Path output) throws IOException {
+		Job job = createJob(conf, inputs, categoryReport, districtReport, output);
+		job.setReducerClass(IntSumReducer.class);
+		job.setOutputKeyClass(CrimeCellWritable.class);
+		job.setOutputValueClass(IntWritable.class);
+		job.setOutputFormatClass(StarSchemaOutputFormat.class);
+		//同一天的数据由同一个 task 先删除再写入，不能有两个 task 同时写
+		job.setReduceSpeculativeExecution(false);
+		return job;
+	}
+
+	/**
+	 * @function 创建统计每天每种犯罪类型在每个区域发生次数的流程阶段
+	 * @param conf 配置，阶段使用创建时的副本，不受并行运行的其他阶段修改的影响
+	 * @param inputs 犯罪历史数据路径
+	 * @param categoryReport SanFranciscoCrime job任务输出犯罪类别的文件路径
+	 * @param districtReport SanFranciscoCrime job任务输出犯罪区域的文件路径
+	 * @param output 输出路径
+	 * @return 流程阶段
+	 * @throws IOException
+	 */
+	public static PipelineRunner.JobStage olapStage(final Configuration conf, final Path[] inputs,
+			final String categoryReport, final String districtReport, final Path output) throws IOException {
+		final Configuration stageConf = new Configuration(conf);
+		final FileSystem fs = output.getFileSystem(stageConf);
+		return new PipelineRunner.JobStage("olap", fs, output) {
+			@Override
+			protected Job createJob() throws IOException {
+				if (fs.isDirectory(output)) {
+					fs.delete(output, true);
+				}
+				return SanFranciscoCrimePrepOlap.createJob(stageConf, inputs, categoryReport, districtReport, output);
+			}
+
+			@Override
+			protected void onSuccess() throws IOException {
+				DayRangePartitions.publish(getJob().getConfiguration(), output);
+			}
+		};
+	}
+
+	/**
+	 * 直接写入星型模型的流程阶段：维度主键id在维度表加载之后才知道，
+	 * 每次尝试创建 job 时由 configure 写入配置的副本，不修改其他阶段共用的配置
+	 */
+	public static class DirectStage extends PipelineRunner.JobStage {
+
+		private final Configuration conf;
+
+		private final Path[] inputs;
+
+		private final String categoryReport;
+
+		private final String districtReport;
+
+		private final Path output;
+
+		/**
+		 * @param conf 配置，包含数据库连接串，阶段使用创建时的副本
+		 * @param inputs 犯罪历史数据路径
+		 * @param categoryReport 犯罪类别字典文件路径
+		 * @param districtReport 犯罪区域字典文件路径
+		 * @param output 只用于记录 _SUCCESS 的输出路径
+		 * @throws IOException
+		 */
+		public DirectStage(Configuration conf, Path[] inputs, String categoryReport, String districtReport,
+				Path output) throws IOException {
+			super("olap-direct", output.getFileSystem(conf), output);
+			this.conf = new Configuration(conf);
+			this.inputs = inputs;
+			this.categoryReport = categoryReport;
+			this.districtReport = districtReport;
+			this.output = output;
+		}
+
+		/**
+		 * @function 设置 job 的维度主键id（StarSchemaOutputFormat.setDimensionIds）和 fact 表的起点，
+		 * 默认使用创建阶段时配置中已有的值
+		 * @param jobConf 此次尝试的配置副本
+		 * @throws IOException
+		 */
+		protected void configure(Configuration jobConf) throws IOException {
+		}
+
+		@Override
+		protected Job createJob() throws IOException {
+			FileSystem fs = output.getFileSystem(conf);
+			if (fs.isDirectory(output)) {
+				fs.delete(output, true);
+			}
+			Configuration jobConf = new Configuration(conf);
+			configure(jobConf);
+			return createDirectJob(jobConf, inputs, categoryReport, districtReport, output);
 		}
 	}
 
 	public int run(String[] arg0) throws Exception {
-		Configuration conf = new Configuration();
+		Configuration conf = getConf();
 
 		Path out = new Path(arg0[3]);
 		
@@ -174,17 +352,11 @@ public class SanFranciscoCrimePrepOlap extends MapReduceJobBase implements Tool
 		}
 		
 		// 任务1
-		Job job = Job.getInstance(conf);
-		job.setJarByClass(SanFranciscoCrimePrepOlap.class);
-
-		job.setMapperClass(DateMapByCategoryAndDistrict.class);//Mapper
-		job.setReducerClass(Reduce.class);//Reducer
-		job.setOutputKeyClass(Text.class);
-		job.setOutputValueClass(Text.class);
-		
-		FileInputFormat.addInputPath(job, new Path(arg0[0]));
-		FileOutputFormat.setOutputPath(job, new Path(arg0[3]));
-		job.waitForCompletion(true);//提交任务
+		Job job = createJob(conf, new Path[] { new Path(arg0[0]) }, arg0[1], arg0[2], out);
+		if (!job.waitForCompletion(true)) {//提交任务
+			return 1;
+		}
+		DayRangePartitions.publish(job.getConfiguration(), out);
 		return 0;
 	}
 
@@ -196,9 +368,6 @@ public class SanFranciscoCrimePrepOlap extends MapReduceJobBase implements Tool
                 "hdfs://master:9000/middle/test/out3/"};
 		if (args0.length == 4) {
 			Configuration conf = new Configuration();
-			FileSystem fs = FileSystem.get(URI.create("hdfs://master:9000"), conf);
-			//调用setup
-			setup(args0[1], args0[2],fs);
 			//执行MapReduce任务
 			int ec = ToolRunner.run(conf, new SanFranciscoCrimePrepOlap(), args0);
 			System.exit(ec);
@@ -0,0 +1,69 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ *
+ * @function 按 PartitionPlan 分配 key：热点 key 的记录轮流发往它的多个 reducer，其余 key 发往方案中的 reducer
+ * 没有方案、方案的 reducer 个数与 job 不一致或 key 不在方案中时，与 HashPartitioner 相同
+ *
+ */
+public class SkewAwarePartitioner<V> extends Partitioner<Text, V> implements Configurable {
+
+	/**
+	 * 为 true（默认）时根据上一次运行的报表计算分配方案
+	 */
+	public static final String SKEW = "crime.partition.skew";
+
+	/**
+	 * key 的权重超过一个 reducer 平均负载的多少倍时被拆分，默认 1.0
+	 */
+	public static final String HOT_FACTOR = "crime.partition.hot.factor";
+
+	/**
+	 * 方案中最多保存的 key 个数
+	 */
+	public static final String PLAN_KEYS = "crime.partition.plan.keys";
+
+	private Configuration conf = null;
+
+	private PartitionPlan plan = null;
+
+	/**
+	 * 热点 key 的下一个 reducer；不同 map task 从不同的位置开始
+	 */
+	private int next = 0;
+
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+		try {
+			plan = PartitionPlan.load(conf);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read " + PartitionPlan.PLAN, e);
+		}
+		next = conf.getInt(MRJobConfig.TASK_PARTITION, 0);
+	}
+
+	public Configuration getConf() {
+		return conf;
+	}
+
+	@Override
+	public int getPartition(Text key, V value, int numPartitions) {
+		int[] partitions = plan == null || plan.getNumPartitions() != numPartitions ? null : plan.get(key);
+		if (partitions == null) {
+			return PartitionPlan.hashPartition(key, numPartitions);
+		}
+		if (partitions.length == 1) {
+			return partitions[0];
+		}
+		next = (next + 1) & Integer.MAX_VALUE;
+		return partitions[next % partitions.length];
+	}
+}
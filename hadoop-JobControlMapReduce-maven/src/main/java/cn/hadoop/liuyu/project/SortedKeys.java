@@ -0,0 +1,126 @@
+package cn.hadoop.liuyu.project;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ *
+ * @function 紧凑的有序字符串集合：所有 key 的 UTF-8 字节连续保存在一个共享的字节数组中，另用一个 int 数组记录每个 key 的起始位置
+ * 由 DataFile.extractSortedKeys 按字节顺序依次加入，不为每个 key 创建字符串对象；下标即为 key 的 id
+ *
+ */
+public class SortedKeys {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private byte[] arena = new byte[4096];
+
+	/**
+	 * 第 i 个 key 的字节为 arena[offsets[i], offsets[i + 1])
+	 */
+	private int[] offsets = new int[257];
+
+	private int size = 0;
+
+	/**
+	 * @function 在末尾加入一个 key，调用者保证按字节顺序严格递增
+	 * @param b 字节数组
+	 * @param off 起始位置
+	 * @param len 长度
+	 */
+	public void add(byte[] b, int off, int len) {
+		int end = offsets[size];
+		if (end + len > arena.length) {
+			arena = Arrays.copyOf(arena, Math.max(arena.length * 2, end + len));
+		}
+		if (size + 2 > offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		}
+		System.arraycopy(b, off, arena, end, len);
+		size++;
+		offsets[size] = end + len;
+	}
+
+	/**
+	 * @function 与最后一个 key 比较
+	 * @param b 字节数组
+	 * @param off 起始位置
+	 * @param len 长度
+	 * @return 小于、等于、大于最后一个 key 时分别返回负数、0、正数，集合为空时返回正数
+	 */
+	public int compareToLast(byte[] b, int off, int len) {
+		if (size == 0) {
+			return 1;
+		}
+		int start = offsets[size - 1];
+		return WritableComparator.compareBytes(b, off, len, arena, start, offsets[size] - start);
+	}
+
+	/**
+	 * @return key 的个数
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i key 的 id
+	 * @return 第 i 个 key（会创建新的字符串）
+	 */
+	public String get(int i) {
+		return new String(arena, offsets[i], offsets[i + 1] - offsets[i], UTF8);
+	}
+
+	/**
+	 * @function 用字节切片二分查找 key 的 id
+	 * @param b 字节数组
+	 * @param off 起始位置
+	 * @param len 长度
+	 * @return key 的 id，不存在时返回 -1
+	 */
+	public int indexOf(byte[] b, int off, int len) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = WritableComparator.compareBytes(arena, offsets[mid], offsets[mid + 1] - offsets[mid], b, off, len);
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return 只读的字符串视图，访问时才创建字符串
+	 */
+	public List<String> asList() {
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				return SortedKeys.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * @return 所有 key 的字符串副本
+	 */
+	public List<String> toList() {
+		return new ArrayList<String>(asList());
+	}
+}
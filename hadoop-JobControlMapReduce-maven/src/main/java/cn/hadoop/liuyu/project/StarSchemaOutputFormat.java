@@ -0,0 +1,353 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ *
+ * @function 将 OLAP 单元格 (日期, 犯罪类别id, 犯罪区域id) 和犯罪次数直接写入星型模型的 fact 表，不经过 HDFS 文本文件
+ * 维度表由驱动程序预先加载，字典 id 到数据库主键id的映射通过配置传给每个 reducer；
+ * 每个 reducer 使用一个控制连接处理 timeperiod 表，并由 crime.star.connections 个线程各自使用一个连接批量插入 fact 数据，
+ * reducer 与插入线程之间是有界队列，数据库跟不上时 reducer 阻塞等待（backpressure）
+ *
+ */
+public class StarSchemaOutputFormat extends OutputFormat<CrimeCellWritable, IntWritable> {
+
+	/**
+	 * 每个 reducer 插入 fact 数据的连接数
+	 */
+	public static final String CONNECTIONS = "crime.star.connections";
+
+	/**
+	 * 每个 reducer 最多排队等待插入的批次数
+	 */
+	public static final String QUEUE_BATCHES = "crime.star.queue.batches";
+
+	public static final String CATEGORY_IDS = "crime.star.category.ids";
+
+	public static final String DISTRICT_IDS = "crime.star.district.ids";
+
+	/**
+	 * 本批数据开始时 fact 表的最大主键id，重新写入某一天时只删除主键更大的记录；默认 -1 删除这一天的所有记录
+	 */
+	public static final String FACT_MARK = "crime.star.fact.mark";
+
+	/**
+	 * fact 记录的字段数：district_id, category_id, time_id, crimes
+	 */
+	private static final int FIELDS = 4;
+
+	/**
+	 * 通知插入线程结束的空批次
+	 */
+	private static final int[] END = new int[0];
+
+	/**
+	 * @function 将字典 id 到数据库主键id的映射保存到配置中
+	 * @param conf 配置
+	 * @param name CATEGORY_IDS 或 DISTRICT_IDS
+	 * @param ids 下标为字典 id 的主键id数组
+	 */
+	public static void setDimensionIds(Configuration conf, String name, int[] ids) {
+		StringBuilder sb = new StringBuilder();
+		for (int id : ids) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(id);
+		}
+		conf.set(name, sb.toString());
+	}
+
+	/**
+	 * @param conf 配置
+	 * @param name CATEGORY_IDS 或 DISTRICT_IDS
+	 * @return 下标为字典 id 的主键id数组
+	 */
+	public static int[] getDimensionIds(Configuration conf, String name) {
+		String[] values = conf.getStrings(name, new String[0]);
+		int[] retVal = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			retVal[i] = Integer.parseInt(values[i].trim());
+		}
+		return retVal;
+	}
+
+	@Override
+	public RecordWriter<CrimeCellWritable, IntWritable> getRecordWriter(TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		try {
+			return new StarSchemaRecordWriter(context);
+		} catch (SQLException e) {
+			throw new IOException("Cannot connect to the star schema", e);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("JDBC driver not found", e);
+		}
+	}
+
+	@Override
+	public void checkOutputSpecs(JobContext context) throws IOException, InterruptedException {
+		Configuration conf = context.getConfiguration();
+		if (conf.get(LoadStarDB.JDBC_URL) == null) {
+			throw new IOException(LoadStarDB.JDBC_URL + " is not set");
+		}
+		if (conf.get(CATEGORY_IDS) == null || conf.get(DISTRICT_IDS) == null) {
+			throw new IOException("Dimension ids are not set, load the dimension tables first");
+		}
+	}
+
+	@Override
+	public OutputCommitter getOutputCommitter(TaskAttemptContext context) throws IOException, InterruptedException {
+		//数据已经在 reducer 中提交到数据库；输出目录只用于记录 _SUCCESS
+		return new FileOutputCommitter(FileOutputFormat.getOutputPath(context), context);
+	}
+
+	/**
+	 * 同一天的数据只由一个 reducer 处理（DayPartitioner），并且按日期排序连续到达：
+	 * 遇到新的一天时先删除本批数据已经写入这一天的 fact 数据（主键大于 crime.star.fact.mark），task 重新运行时结果不变
+	 */
+	private static class StarSchemaRecordWriter extends RecordWriter<CrimeCellWritable, IntWritable> {
+
+		private final TaskAttemptContext context;
+
+		private final int[] categoryIds;
+
+		private final int[] districtIds;
+
+		private final int batchSize;
+
+		private final long factMark;
+
+		private final Connection control;
+
+		private final PreparedStatement timeperiodSelect;
+
+		private final PreparedStatement timeperiodInsert;
+
+		private final PreparedStatement factDelete;
+
+		private final BlockingQueue<int[]> queue;
+
+		private final List<Thread> inserters = new ArrayList<Thread>();
+
+		private volatile Exception failure = null;
+
+		private int[] batch;
+
+		private int rows = 0;
+
+		private int currentDay = CrimeDate.INVALID;
+
+		private int currentTimeId = 0;
+
+		StarSchemaRecordWriter(TaskAttemptContext context) throws SQLException, ClassNotFoundException {
+			this.context = context;
+			Configuration conf = context.getConfiguration();
+			categoryIds = getDimensionIds(conf, CATEGORY_IDS);
+			districtIds = getDimensionIds(conf, DISTRICT_IDS);
+			batchSize = Math.max(1, conf.getInt(LoadStarDB.BATCH_SIZE, LoadStarDB.DEFAULT_BATCH_SIZE));
+			factMark = conf.getLong(FACT_MARK, -1);
+			batch = new int[batchSize * FIELDS];
+			queue = new ArrayBlockingQueue<int[]>(Math.max(1, conf.getInt(QUEUE_BATCHES, 4)));
+
+			Class.forName(conf.get(LoadStarDB.JDBC_DRIVER, LoadStarDB.MYSQL_DRIVER));
+			final String url = conf.get(LoadStarDB.JDBC_URL);
+			control = DriverManager.getConnection(url);
+			control.setAutoCommit(false);
+			timeperiodSelect = control.prepareStatement("select id from timeperiod where year = ? and month = ? and day = ?");
+			timeperiodInsert = control.prepareStatement("insert into timeperiod (year, month, week, day) values (?, ?, ?, ?)",
+					Statement.RETURN_GENERATED_KEYS);
+			factDelete = control.prepareStatement("delete from fact where time_id = ? and id > ?");
+
+			int connections = Math.max(1, conf.getInt(CONNECTIONS, 1));
+			for (int i = 0; i < connections; i++) {
+				Thread t = new Thread(new Runnable() {
+					public void run() {
+						insertBatches(url);
+					}
+				}, "star-schema-inserter-" + i);
+				t.setDaemon(true);
+				t.start();
+				inserters.add(t);
+			}
+		}
+
+		@Override
+		public void write(CrimeCellWritable key, IntWritable value) throws IOException, InterruptedException {
+			if (key.getDay() != currentDay) {
+				startDay(key.getDay());
+			}
+			int category = key.getCategory();
+			int district = key.getDistrict();
+			if (category < 0 || category >= categoryIds.length || district < 0 || district >= districtIds.length) {
+				throw new IOException("Unknown dimension id in " + key);
+			}
+			int p = rows * FIELDS;
+			batch[p] = districtIds[district];
+			batch[p + 1] = categoryIds[category];
+			batch[p + 2] = currentTimeId;
+			batch[p + 3] = value.get();
+			if (++rows == batchSize) {
+				enqueue(batch);
+				batch = new int[batchSize * FIELDS];
+				rows = 0;
+			}
+		}
+
+		/**
+		 * @function 取得（或插入）这一天的 timeperiod 主键id，并删除本批数据已经写入这一天的 fact 数据
+		 * 在放入队列的数据之前提交，插入线程不会与删除冲突
+		 */
+		private void startDay(int day) throws IOException {
+			try {
+				int year = CrimeDate.year(day);
+				int month = CrimeDate.month(day) - 1;//与 Calendar.MONTH 一致，从0开始
+				int dayOfMonth = CrimeDate.dayOfMonth(day);
+				timeperiodSelect.setInt(1, year);
+				timeperiodSelect.setInt(2, month);
+				timeperiodSelect.setInt(3, dayOfMonth);
+				int timeId = 0;
+				ResultSet rs = timeperiodSelect.executeQuery();
+				try {
+					if (rs.next()) {
+						timeId = rs.getInt(1);
+					}
+				} finally {
+					rs.close();
+				}
+				if (timeId == 0) {
+					timeperiodInsert.setInt(1, year);
+					timeperiodInsert.setInt(2, month);
+					timeperiodInsert.setInt(3, CrimeDate.weekOfMonth(day));
+					timeperiodInsert.setInt(4, dayOfMonth);
+					timeperiodInsert.executeUpdate();
+					rs = timeperiodInsert.getGeneratedKeys();
+					try {
+						if (!rs.next()) {
+							throw new SQLException("No generated key returned");
+						}
+						timeId = rs.getInt(1);
+					} finally {
+						rs.close();
+					}
+				} else {
+					factDelete.setInt(1, timeId);
+					factDelete.setLong(2, factMark);
+					factDelete.executeUpdate();
+				}
+				control.commit();
+				currentDay = day;
+				currentTimeId = timeId;
+			} catch (SQLException e) {
+				throw new IOException("Cannot prepare " + CrimeDate.format(day), e);
+			}
+		}
+
+		/**
+		 * @function 将一批记录放入队列，队列已满时阻塞，期间向框架报告进度并检查插入线程是否失败
+		 */
+		private void enqueue(int[] rows) throws IOException, InterruptedException {
+			while (!queue.offer(rows, 1, TimeUnit.SECONDS)) {
+				checkFailure();
+				context.progress();
+			}
+		}
+
+		private void checkFailure() throws IOException {
+			if (failure != null) {
+				throw new IOException("Fact insert failed", failure);
+			}
+		}
+
+		/**
+		 * @function 插入线程：使用自己的连接，每批记录执行一次 executeBatch 并提交
+		 */
+		private void insertBatches(String url) {
+			Connection conn = null;
+			try {
+				conn = DriverManager.getConnection(url);
+				conn.setAutoCommit(false);
+				PreparedStatement insert = conn.prepareStatement(
+						"insert into fact (district_id, category_id, time_id, crimes) values (?, ?, ?, ?)");
+				try {
+					int[] rows = queue.take();
+					while (rows != END) {
+						for (int p = 0; p < rows.length; p += FIELDS) {
+							insert.setInt(1, rows[p]);
+							insert.setInt(2, rows[p + 1]);
+							insert.setInt(3, rows[p + 2]);
+							insert.setInt(4, rows[p + 3]);
+							insert.addBatch();
+						}
+						insert.executeBatch();
+						conn.commit();
+						rows = queue.take();
+					}
+				} finally {
+					insert.close();
+				}
+			} catch (Exception e) {
+				failure = e;
+				//不再消费队列，reducer 在下一次放入数据时发现失败
+			} finally {
+				if (conn != null) {
+					try {
+						conn.close();
+					} catch (SQLException e) {
+						//连接已经不可用
+					}
+				}
+			}
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+			try {
+				if (rows > 0) {
+					enqueue(Arrays.copyOf(batch, rows * FIELDS));
+					rows = 0;
+				}
+				for (int i = 0; i < inserters.size(); i++) {
+					enqueue(END);
+				}
+				for (Thread t : inserters) {
+					while (t.isAlive()) {
+						t.join(1000);
+						context.progress();
+					}
+				}
+				checkFailure();
+			} finally {
+				try {
+					timeperiodSelect.close();
+					timeperiodInsert.close();
+					factDelete.close();
+					control.close();
+				} catch (SQLException e) {
+					throw new IOException("Cannot close the star schema connection", e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package cn.hadoop.liuyu.project;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ *
+ * @function 把事件的日期（和时间）映射为报表中的时段编号，时段的个数由方式和配置的日期范围决定
+ * 报表 job 的计数向量按时段个数分配定长的 int 数组，每个 key 的内存占用与事件数量无关
+ * 方式由 crime.bucket.mode 指定，日期范围由 crime.bucket.from 和 crime.bucket.to 指定（yyyymmdd，包含两端）：
+ * WEEK_OF_MONTH 原有的周时段 month * 5 + WEEK_OF_MONTH，不需要日期范围；
+ * MONDAY_WEEK 从范围起始日所在周的礼拜一开始的第几周（从 0 开始连续编号，不是 ISO-8601 的年内周编号 1-53）；DAY 范围内的第几天；MONTH 范围内的第几个月；
+ * HOUR_OF_WEEK 礼拜一 0 点开始的第几个小时（共 168 个），需要时间列
+ * 对象不可变，可以在多个线程中同时使用
+ *
+ */
+public final class TimeBucketing {
+
+	/**
+	 * 时段的划分方式
+	 */
+	public enum Mode {
+		WEEK_OF_MONTH, MONDAY_WEEK, DAY, MONTH, HOUR_OF_WEEK
+	}
+
+	public static final String MODE = "crime.bucket.mode";
+
+	public static final String FROM = "crime.bucket.from";
+
+	public static final String TO = "crime.bucket.to";
+
+	/**
+	 * 时段个数的上限，防止日期范围配置错误时分配过大的数组
+	 */
+	public static final int MAX_BUCKETS = 1 << 16;
+
+	private static final int HOURS_PER_WEEK = 7 * 24;
+
+	private final Mode mode;
+
+	private final int from;
+
+	private final int to;
+
+	/**
+	 * 范围起始日期对应的基准：天数、周起始的天数或月数
+	 */
+	private final int base;
+
+	private final int buckets;
+
+	/**
+	 * @param mode 时段的划分方式
+	 * @param from yyyymmdd 格式的起始日期，CrimeDate.INVALID 表示不限制
+	 * @param to yyyymmdd 格式的结束日期，CrimeDate.INVALID 表示不限制
+	 */
+	public TimeBucketing(Mode mode, int from, int to) {
+		this.mode = mode;
+		this.from = from;
+		this.to = to;
+		boolean bounded = from != CrimeDate.INVALID && to != CrimeDate.INVALID;
+		if (bounded && from > to) {
+			throw new IllegalArgumentException(FROM + " is after " + TO);
+		}
+		switch (mode) {
+		case WEEK_OF_MONTH:
+			base = 0;
+			buckets = WeekCountsWritable.BUCKETS;
+			break;
+		case HOUR_OF_WEEK:
+			base = 0;
+			buckets = HOURS_PER_WEEK;
+			break;
+		default:
+			if (!bounded) {
+				throw new IllegalArgumentException(mode + " needs " + FROM + " and " + TO);
+			}
+			base = index(mode, from);
+			long n = (long) index(mode, to) - base + 1;
+			if (n > MAX_BUCKETS) {
+				throw new IllegalArgumentException(mode + " from " + from + " to " + to + " has more than "
+						+ MAX_BUCKETS + " buckets");
+			}
+			buckets = (int) n;
+		}
+	}
+
+	/**
+	 * @function 按配置创建时段划分，默认为原有的周时段
+	 * @param conf 配置
+	 * @return 时段划分
+	 */
+	public static TimeBucketing fromConfiguration(Configuration conf) {
+		Mode mode = Mode.valueOf(conf.get(MODE, Mode.WEEK_OF_MONTH.name()).trim().toUpperCase());
+		return new TimeBucketing(mode, conf.getInt(FROM, CrimeDate.INVALID), conf.getInt(TO, CrimeDate.INVALID));
+	}
+
+	/**
+	 * @return 时段的划分方式
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return 时段的个数，即计数向量的长度
+	 */
+	public int buckets() {
+		return buckets;
+	}
+
+	/**
+	 * @return 是否需要事件的时间（小时）
+	 */
+	public boolean needsTime() {
+		return mode == Mode.HOUR_OF_WEEK;
+	}
+
+	/**
+	 * @function 计算事件所在的时段
+	 * @param date yyyymmdd 格式的日期
+	 * @param hour 0-23 的小时，不需要时间时忽略
+	 * @return 时段编号，日期不在范围内或小时无效时返回 -1
+	 */
+	public int bucket(int date, int hour) {
+		if ((from != CrimeDate.INVALID && date < from) || (to != CrimeDate.INVALID && date > to)) {
+			return -1;
+		}
+		switch (mode) {
+		case WEEK_OF_MONTH:
+			return CrimeDate.weekBucket(date);
+		case HOUR_OF_WEEK:
+			if (hour < 0 || hour > 23) {
+				return -1;
+			}
+			return mondayIndex(CrimeDate.toEpochDay(date)) * 24 + hour;
+		default:
+			return index(mode, date) - base;
+		}
+	}
+
+	/**
+	 * @function 生成报表格式的字符串：原有的周时段保持原来的格式，其他方式输出范围内的每个时段
+	 * @param counts 计数向量
+	 * @return 逗号分隔的各时段次数
+	 */
+	public String report(WeekCountsWritable counts) {
+		return mode == Mode.WEEK_OF_MONTH ? counts.toReport() : counts.toReport(buckets);
+	}
+
+	private static int index(Mode mode, int date) {
+		switch (mode) {
+		case MONDAY_WEEK:
+			int epochDay = CrimeDate.toEpochDay(date);
+			//这一周的礼拜一；1970-01-05 是礼拜一，减去 4 后能被 7 整除，负数也是精确除法
+			return (epochDay - mondayIndex(epochDay) - 4) / 7;
+		case MONTH:
+			return CrimeDate.year(date) * 12 + CrimeDate.month(date) - 1;
+		default:
+			return CrimeDate.toEpochDay(date);
+		}
+	}
+
+	/**
+	 * @return 礼拜几，礼拜一为0
+	 */
+	private static int mondayIndex(int epochDay) {
+		//1970-01-01 是礼拜四
+		int dow = (epochDay + 3) % 7;
+		return dow < 0 ? dow + 7 : dow;
+	}
+}
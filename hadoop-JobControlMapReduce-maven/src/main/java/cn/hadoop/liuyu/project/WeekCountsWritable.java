@@ -0,0 +1,186 @@
+package cn.hadoop.liuyu.project;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ *
+ * @function 时段计数向量，作为 map/combine/reduce 之间传递的 value，时段的划分见 TimeBucketing
+ * 计数保存在按时段个数分配的 int 数组中，只记录可能非 0 的下标范围，清空和序列化只处理这一范围；
+ * 序列化时只写出非 0 的时段，一条只包含一次事件的记录只有几个字节
+ *
+ */
+public class WeekCountsWritable implements Writable {
+
+	/**
+	 * 原有周时段的个数：month * 5 + WEEK_OF_MONTH，最大为 11 * 5 + 6
+	 */
+	public static final int BUCKETS = 62;
+
+	/**
+	 * 报表中固定输出的周时段个数（1-3月的数据为 0-15）
+	 */
+	public static final int REPORT_BUCKETS = 16;
+
+	private int[] counts;
+
+	/**
+	 * 可能非 0 的下标范围 [low, high)
+	 */
+	private int low = 0;
+
+	private int high = 0;
+
+	public WeekCountsWritable() {
+		this(BUCKETS);
+	}
+
+	/**
+	 * @param buckets 时段的个数，即 TimeBucketing.buckets()
+	 */
+	public WeekCountsWritable(int buckets) {
+		counts = new int[buckets];
+	}
+
+	/**
+	 * @function 清空所有计数
+	 */
+	public void clear() {
+		if (low < high) {
+			Arrays.fill(counts, low, high, 0);
+		}
+		low = 0;
+		high = 0;
+	}
+
+	/**
+	 * @function 将计数设置为只在 bucket 时段发生一次
+	 * @param bucket 时段
+	 */
+	public void set(int bucket) {
+		clear();
+		ensure(bucket + 1);
+		counts[bucket] = 1;
+		low = bucket;
+		high = bucket + 1;
+	}
+
+	/**
+	 * @function 累加另一个计数向量
+	 * @param other 另一个计数向量
+	 */
+	public void add(WeekCountsWritable other) {
+		if (other.low >= other.high) {
+			return;
+		}
+		ensure(other.high);
+		for (int i = other.low; i < other.high; i++) {
+			counts[i] += other.counts[i];
+		}
+		if (low >= high) {
+			low = other.low;
+			high = other.high;
+		} else {
+			low = Math.min(low, other.low);
+			high = Math.max(high, other.high);
+		}
+	}
+
+	/**
+	 * @param bucket 时段
+	 * @return 该时段内事件发生的次数
+	 */
+	public int get(int bucket) {
+		return bucket < counts.length ? counts[bucket] : 0;
+	}
+
+	/**
+	 * @return 所有时段的事件次数之和
+	 */
+	public long total() {
+		long retVal = 0;
+		for (int i = low; i < high; i++) {
+			retVal += counts[i];
+		}
+		return retVal;
+	}
+
+	/**
+	 * @function 生成原有周时段报表格式的字符串：固定输出 0-15 周时段，其后只输出有事件发生的周时段
+	 * @return 逗号分隔的各周时段次数
+	 */
+	public String toReport() {
+		StringBuilder rpt = new StringBuilder();
+		for (int i = 0; i < Math.max(REPORT_BUCKETS, high); i++) {
+			if (i < REPORT_BUCKETS || get(i) > 0) {
+				if (rpt.length() > 0) {
+					rpt.append(",");
+				}
+				rpt.append(get(i));
+			}
+		}
+		return rpt.toString();
+	}
+
+	/**
+	 * @function 生成固定列数的报表字符串，每一列对应一个时段
+	 * @param buckets 时段的个数
+	 * @return 逗号分隔的各时段次数
+	 */
+	public String toReport(int buckets) {
+		StringBuilder rpt = new StringBuilder(buckets * 2);
+		for (int i = 0; i < buckets; i++) {
+			if (i > 0) {
+				rpt.append(",");
+			}
+			rpt.append(get(i));
+		}
+		return rpt.toString();
+	}
+
+	private void ensure(int size) {
+		if (size > counts.length) {
+			counts = Arrays.copyOf(counts, Math.max(size, counts.length * 2));
+		}
+	}
+
+	public void write(DataOutput out) throws IOException {
+		int nonZero = 0;
+		for (int i = low; i < high; i++) {
+			if (counts[i] != 0) {
+				nonZero++;
+			}
+		}
+		WritableUtils.writeVInt(out, nonZero);
+		for (int i = low; i < high; i++) {
+			if (counts[i] != 0) {
+				WritableUtils.writeVInt(out, i);
+				WritableUtils.writeVInt(out, counts[i]);
+			}
+		}
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		clear();
+		int nonZero = WritableUtils.readVInt(in);
+		for (int k = 0; k < nonZero; k++) {
+			int bucket = WritableUtils.readVInt(in);
+			ensure(bucket + 1);
+			counts[bucket] = WritableUtils.readVInt(in);
+			if (k == 0) {
+				low = bucket;
+			}
+			high = bucket + 1;//按下标递增写出
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toReport();
+	}
+}
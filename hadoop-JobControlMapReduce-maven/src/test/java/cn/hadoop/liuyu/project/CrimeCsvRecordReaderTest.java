@@ -0,0 +1,169 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @function CrimeCsvRecordReader 的分片读取：按任意大小分片读到的记录与整个文件一次读到的记录相同
+ *
+ */
+public class CrimeCsvRecordReaderTest {
+
+	private static final String HEADER = "IncidntNum,Category,Descript,DayOfWeek,Date,Time,PdDistrict,Resolution,Address,X,Y,Location,PdId";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Configuration conf = new Configuration();
+
+	/**
+	 * @function 生成 rows 条记录，描述列包含逗号、转义引号和引号内的换行，长度不一，使记录跨越读缓冲区和分片的边界
+	 */
+	private static List<String> rows(int rows, long seed) {
+		Random rnd = new Random(seed);
+		List<String> retVal = new ArrayList<String>();
+		for (int i = 0; i < rows; i++) {
+			String desc;
+			switch (rnd.nextInt(6)) {
+			case 0:
+				desc = "PLAIN";
+				break;
+			case 1:
+				desc = "\"A, B\"";
+				break;
+			case 2:
+				desc = "\"LINE1\nLINE2, \"\"Q\"\"\nLINE3\"";
+				break;
+			case 3:
+				desc = "\"\n\"";
+				break;
+			case 4:
+				desc = "\"X\"\"\n,\"\"Y\"";
+				break;
+			default:
+				StringBuilder sb = new StringBuilder("\"");
+				for (int k = rnd.nextInt(300); k > 0; k--) {
+					sb.append((char) ('a' + rnd.nextInt(26)));
+				}
+				desc = sb.append('"').toString();
+			}
+			retVal.add(i + ",CAT" + (i % 7) + "," + desc + ",Monday,02/01/2015 12:00:00 AM,12:00,DIST" + (i % 3)
+					+ ",NONE,\"1 ST, 2 ST\",1,2,\"(1, 2)\",9");
+		}
+		return retVal;
+	}
+
+	private File write(String name, List<String> rows) throws IOException {
+		File retVal = folder.newFile(name);
+		OutputStream out = new FileOutputStream(retVal);
+		try {
+			write(out, rows);
+		} finally {
+			out.close();
+		}
+		return retVal;
+	}
+
+	private static void write(OutputStream out, List<String> rows) throws IOException {
+		out.write((HEADER + "\n").getBytes("UTF-8"));
+		for (String row : rows) {
+			out.write((row + "\n").getBytes("UTF-8"));
+		}
+	}
+
+	/**
+	 * @function 按 splitSize 把文件分片，依次读取每个分片
+	 * @return 各分片读到的记录，withKey 为 true 时带有记录的位置
+	 */
+	private List<String> read(File file, long splitSize, boolean withKey) throws IOException {
+		Path path = new Path(file.getAbsolutePath());
+		long len = file.length();
+		TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+		List<String> retVal = new ArrayList<String>();
+		for (long start = 0; start < len; start += splitSize) {
+			FileSplit split = new FileSplit(path, start, Math.min(splitSize, len - start), null);
+			CrimeCsvRecordReader reader = new CrimeCsvRecordReader();
+			reader.initialize(split, context);
+			try {
+				while (reader.nextKeyValue()) {
+					assertTrue(((CsvRecord) reader.getCurrentValue()).isSealed());
+					retVal.add(withKey ? reader.getCurrentKey().get() + "|" + reader.getCurrentValue()
+							: reader.getCurrentValue().toString());
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return retVal;
+	}
+
+	@Test
+	public void wholeFileSkipsHeaderAndJoinsQuotedLines() throws IOException {
+		List<String> rows = rows(200, 1);
+		File file = write("crime.csv", rows);
+		assertEquals(rows, read(file, file.length(), false));
+	}
+
+	@Test
+	public void smallSplitsMatchWholeFile() throws IOException {
+		File file = write("crime.csv", rows(60, 2));
+		List<String> whole = read(file, file.length(), true);
+		for (long splitSize = 1; splitSize < 700; splitSize += splitSize < 50 ? 1 : 7) {
+			assertEquals("split size " + splitSize, whole, read(file, splitSize, true));
+		}
+	}
+
+	/**
+	 * HDFS 的块大小是 4096 的倍数，分片的边界与读缓冲区（io.file.buffer.size）的边界重合
+	 */
+	@Test
+	public void bufferAlignedSplitsMatchWholeFile() throws IOException {
+		File file = write("crime.csv", rows(2000, 3));
+		List<String> whole = read(file, file.length(), true);
+		assertEquals(2000, whole.size());
+		for (long splitSize : new long[] { 4096, 8192, 3 * 4096, 65536, 4095, 4097, 10000 }) {
+			assertEquals("split size " + splitSize, whole, read(file, splitSize, true));
+		}
+	}
+
+	/**
+	 * bzip2 按压缩块分片，记录的位置随分片变化（与 LineRecordReader 相同），只比较记录的内容
+	 */
+	@Test
+	public void bzip2SplitsMatchWholeFile() throws IOException {
+		List<String> rows = rows(12000, 4);
+		File file = folder.newFile("crime.csv.bz2");
+		BZip2Codec codec = new BZip2Codec();
+		codec.setConf(conf);
+		OutputStream out = codec.createOutputStream(new FileOutputStream(file));
+		try {
+			write(out, rows);
+		} finally {
+			out.close();
+		}
+		assertEquals(rows, read(file, file.length(), false));
+		for (long splitSize : new long[] { file.length() / 2 + 1, file.length() / 5 + 1, 100000 }) {
+			assertEquals("split size " + splitSize, rows, read(file, splitSize, false));
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ *
+ * @function CrimeDate 的日期解析与计算，与 GregorianCalendar 的结果比较
+ *
+ */
+public class CrimeDateTest {
+
+	@Test
+	public void parsesCrimeDates() {
+		assertEquals(20130330, CrimeDate.parse("03/30/2013 07:00:00 AM +0000"));
+		assertEquals(20150102, CrimeDate.parse("1/2/2015"));
+		assertEquals(20160229, CrimeDate.parse("02/29/2016T00:00"));
+	}
+
+	@Test
+	public void rejectsInvalidDates() {
+		String[] invalid = { "", "Date", "13/01/2015", "00/10/2015", "02/29/2015", "04/31/2015", "1/2/15",
+				"1/2/20155", "01-02-2015", "01/02/2015x", "/02/2015" };
+		for (String value : invalid) {
+			assertEquals(value, CrimeDate.INVALID, CrimeDate.parse(value));
+		}
+	}
+
+	@Test
+	public void parsesHours() {
+		byte[] b = "07:30".getBytes();
+		assertEquals(7, CrimeDate.parseHour(b, 0, b.length));
+		b = "23:59".getBytes();
+		assertEquals(23, CrimeDate.parseHour(b, 0, b.length));
+		b = "24:00".getBytes();
+		assertEquals(-1, CrimeDate.parseHour(b, 0, b.length));
+		b = "ab".getBytes();
+		assertEquals(-1, CrimeDate.parseHour(b, 0, b.length));
+	}
+
+	@Test
+	public void formatRoundTrips() {
+		assertEquals("2013/03/05", CrimeDate.format(20130305));
+		assertEquals(20130305, CrimeDate.parseFormatted("2013/03/05"));
+		assertEquals(CrimeDate.INVALID, CrimeDate.parseFormatted("2013/02/30"));
+		assertEquals(CrimeDate.INVALID, CrimeDate.parseFormatted("2013-03-05"));
+	}
+
+	/**
+	 * 逐日比较 1890-2110 年（包括预计算表之外的年份）的 epoch day、周时段与 GregorianCalendar 的结果
+	 */
+	@Test
+	public void matchesGregorianCalendar() {
+		GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(1890, Calendar.JANUARY, 1);
+		long epochMillis = 24L * 3600 * 1000;
+		while (calendar.get(Calendar.YEAR) < 2110) {
+			int date = calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+					+ calendar.get(Calendar.DAY_OF_MONTH);
+			int epochDay = (int) Math.floor(calendar.getTimeInMillis() / (double) epochMillis);
+			assertEquals(date + "", epochDay, CrimeDate.toEpochDay(date));
+			assertEquals(date, CrimeDate.fromEpochDay(epochDay));
+			assertEquals(date + "", calendar.get(Calendar.WEEK_OF_MONTH), CrimeDate.weekOfMonth(date));
+			assertEquals(calendar.get(Calendar.MONTH) * 5 + calendar.get(Calendar.WEEK_OF_MONTH),
+					CrimeDate.weekBucket(date));
+			calendar.add(Calendar.DAY_OF_MONTH, 1);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ *
+ * @function CsvRecord 记录的分隔符位置必须与 CsvTokenizer 逐字节解析的结果一致，包括格式不正确的行
+ *
+ */
+public class CsvRecordTest {
+
+	private static CsvRecord record(String line) {
+		CsvRecord retVal = new CsvRecord();
+		retVal.set(line);
+		retVal.scan(0);
+		retVal.seal();
+		return retVal;
+	}
+
+	/**
+	 * @function 分别按分隔符位置和逐字节解析 line，比较解析结果
+	 */
+	private static void assertSameTokens(String line, int... columns) {
+		CsvTokenizer sealed = new CsvTokenizer();
+		CsvTokenizer plain = new CsvTokenizer();
+		if (columns.length > 0) {
+			sealed.project(0, columns);
+			plain.project(0, columns);
+		}
+		assertEquals(line, plain.tokenize(new Text(line)), sealed.tokenize(record(line)));
+		assertArrayEquals(line, plain.toArray(), sealed.toArray());
+	}
+
+	@Test
+	public void separatorsSkipQuotedCommas() {
+		CsvRecord record = record("a,\"b,c\",\"d\"\"e,f\",g");
+		assertTrue(record.isSealed());
+		assertEquals(4, record.fields());
+		assertEquals(1, record.end(0));
+		assertEquals(7, record.end(1));
+		assertEquals(record.getLength(), record.end(3));
+	}
+
+	@Test
+	public void quoteInsideUnquotedFieldIsLiteral() {
+		CsvRecord record = record("a\"b,c,\"d");
+		assertEquals(3, record.fields());
+		assertSameTokens("a\"b,c,\"d", 0, 1, 2);
+		assertSameTokens("a\"b,c\"d,e", 2);
+		assertSameTokens("\"a\"b\"c,d\",e", 1);
+	}
+
+	@Test
+	public void openQuoteContinuesOnAppendedLines() {
+		CsvRecord record = new CsvRecord();
+		record.set("1,\"x");
+		assertTrue(record.scan(0));
+		int from = record.getLength();
+		record.append(new byte[] { '\n' }, 0, 1);
+		byte[] next = "y\"\",z\",2".getBytes();
+		record.append(next, 0, next.length);
+		assertFalse(record.isSealed());
+		assertFalse(record.scan(from));
+		record.seal();
+		assertEquals(3, record.fields());
+		assertSameTokens(record.toString(), 0, 1, 2);
+	}
+
+	@Test
+	public void modificationInvalidatesSeparators() {
+		CsvRecord record = record("a,b,c");
+		record.set("d,e");
+		assertFalse(record.isSealed());
+		assertEquals(0, record.fields());
+	}
+
+	/**
+	 * 随机生成包含引号、逗号的行（大多格式不正确），与逐字节解析比较
+	 */
+	@Test
+	public void randomRowsMatchTokenizer() {
+		Random rnd = new Random(24);
+		char[] alphabet = { 'a', 'b', ',', ',', '"', '"', ' ' };
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int k = rnd.nextInt(16); k > 0; k--) {
+				sb.append(alphabet[rnd.nextInt(alphabet.length)]);
+			}
+			String line = sb.toString();
+			assertSameTokens(line);
+			assertSameTokens(line, 1, 3);
+			assertSameTokens(line, 4);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ *
+ * @function CsvTokenizer 按 RFC-4180 切分字段：引号、转义引号、引号内的逗号和换行，以及只解析部分列
+ *
+ */
+public class CsvTokenizerTest {
+
+	private static String[] tokenize(CsvTokenizer tokenizer, String line) {
+		tokenizer.tokenize(new Text(line));
+		return tokenizer.toArray();
+	}
+
+	@Test
+	public void plainFields() {
+		assertArrayEquals(new String[] { "a", "b", "", "c" }, tokenize(new CsvTokenizer(), "a,b,,c"));
+		assertArrayEquals(new String[] { "", "" }, tokenize(new CsvTokenizer(), ","));
+		assertArrayEquals(new String[] { "" }, tokenize(new CsvTokenizer(), ""));
+	}
+
+	@Test
+	public void quotedFieldsKeepCommasAndNewlines() {
+		assertArrayEquals(new String[] { "1", "A, B", "x\ny", "" },
+				tokenize(new CsvTokenizer(), "1,\"A, B\",\"x\ny\",\"\""));
+	}
+
+	@Test
+	public void doubledQuotesAreUnescaped() {
+		CsvTokenizer tokenizer = new CsvTokenizer();
+		assertArrayEquals(new String[] { "say \"hi\"", "b", "\"" },
+				tokenize(tokenizer, "\"say \"\"hi\"\"\",b,\"\"\"\""));
+		//去转义使用的缓冲区被复用，下一行不受影响
+		assertArrayEquals(new String[] { "x", "y" }, tokenize(tokenizer, "x,y"));
+	}
+
+	@Test
+	public void trailingLineBreakIsStripped() {
+		assertArrayEquals(new String[] { "a", "b" }, tokenize(new CsvTokenizer(), "a,b\r\n"));
+	}
+
+	@Test
+	public void malformedQuotesFollowTokenizerRules() {
+		//列中间的引号是普通字符，结束引号之后直到分隔符的内容被忽略
+		assertArrayEquals(new String[] { "a\"b", "c" }, tokenize(new CsvTokenizer(), "a\"b,c"));
+		assertArrayEquals(new String[] { "a", "d" }, tokenize(new CsvTokenizer(), "\"a\"bc,d"));
+		assertArrayEquals(new String[] { "open, never closed" }, tokenize(new CsvTokenizer(), "\"open, never closed"));
+	}
+
+	@Test
+	public void projectionSkipsOtherColumnsAndStopsEarly() {
+		CsvTokenizer tokenizer = new CsvTokenizer();
+		tokenizer.project(0, 1, 3);
+		assertEquals(4, tokenizer.tokenize(new Text("a,\"b,\"\"c\",\"d\"\"\",e,f,g")));
+		assertFalse(tokenizer.isProjected(0));
+		assertFalse(tokenizer.isProjected(4));
+		assertEquals(-1, tokenizer.start(0));
+		assertEquals("b,\"c", tokenizer.getString(1));
+		assertEquals("e", tokenizer.getString(3));
+	}
+
+	@Test
+	public void projectionCountsMinimumColumns() {
+		CsvTokenizer tokenizer = new CsvTokenizer();
+		tokenizer.project(6, 1);
+		assertEquals(6, tokenizer.tokenize(new Text("a,b,c,d,e,f,g,h")));
+		assertEquals(3, tokenizer.tokenize(new Text("a,b,c")));
+	}
+
+	@Test
+	public void matchesProjectedCrimeColumns() {
+		CsvTokenizer tokenizer = MapReduceJobBase.projectedTokenizer(MapReduceJobBase.DATE_COLUMN_INDEX);
+		tokenizer.tokenize(new Text("IncidntNum,Category,Descript,DayOfWeek,Date,Time,PdDistrict,Resolution,Address,X,Y,Location"));
+		assertTrue(tokenizer.equalsIgnoreCase(MapReduceJobBase.DATE_COLUMN_INDEX, "DATE"));
+		assertFalse(tokenizer.equalsIgnoreCase(MapReduceJobBase.DATE_COLUMN_INDEX, "time"));
+	}
+
+	@Test
+	public void copyReusesTarget() {
+		CsvTokenizer tokenizer = new CsvTokenizer();
+		Text target = new Text("previous value");
+		tokenizer.tokenize(new Text("x,\"y\"\"z\""));
+		tokenizer.copy(1, target);
+		assertEquals("y\"z", target.toString());
+	}
+}
@@ -0,0 +1,136 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @function DataFile.extractSortedKeys 从本地 part 文件提取字典 key：有序文件多路归并、跨文件去重，
+ * 未排序的文件改为全部读取后排序，结果与原来逐行分割再排序的方式一致
+ *
+ */
+public class DataFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FileSystem fs;
+
+	@Before
+	public void localFileSystem() throws IOException {
+		fs = FileSystem.getLocal(new Configuration());
+	}
+
+	private File write(File file, String... lines) throws IOException {
+		file.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			for (String line : lines) {
+				out.write((line + "\n").getBytes("UTF-8"));
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * @return 原来的做法：按行读取每个 part 文件，取制表符之前的字段，排序并去重
+	 */
+	private List<String> splitAndSort(File dir) throws IOException {
+		TreeSet<String> keys = new TreeSet<String>();
+		for (Path part : DataFile.partFiles(new Path(dir.getPath()), fs)) {
+			keys.addAll(DataFile.readKeys(part.toString(), fs));
+		}
+		return new ArrayList<String>(keys);
+	}
+
+	/**
+	 * @return 两个 reducer 的输出，VANDALISM 和 ASSAULT 在两个文件中都出现
+	 */
+	private File sortedOutput() throws IOException {
+		File dir = new File(folder.getRoot(), "categories");
+		write(new File(dir, "part-r-00000"), "ASSAULT\t3", "BURGLARY\t1", "LARCENY/THEFT\t9", "VANDALISM\t2");
+		write(new File(dir, "part-r-00001"), "ARSON\t1", "ASSAULT\t4", "DRUNKENNESS\t1", "VANDALISM\t5",
+				"WARRANTS\t2");
+		write(new File(dir, "_SUCCESS"));
+		return dir;
+	}
+
+	@Test
+	public void sortedPartsAreMergedWithoutDuplicates() throws IOException {
+		File dir = sortedOutput();
+		List<String> expected = Arrays.asList("ARSON", "ASSAULT", "BURGLARY", "DRUNKENNESS", "LARCENY/THEFT",
+				"VANDALISM", "WARRANTS");
+		assertEquals(expected, DataFile.extractKeys(dir.getPath(), fs));
+		assertEquals(expected, splitAndSort(dir));
+		SortedKeys keys = DataFile.extractSortedKeys(dir.getPath(), fs);
+		assertEquals(expected.size(), keys.size());
+		byte[] vandalism = "VANDALISM".getBytes("UTF-8");
+		assertEquals(5, keys.indexOf(vandalism, 0, vandalism.length));
+	}
+
+	/**
+	 * part-r-merged 是手工合并的文件，没有排序并且有重复的 key：归并发现顺序错误后改为排序
+	 */
+	@Test
+	public void unsortedPartFallsBackToSorting() throws IOException {
+		File dir = sortedOutput();
+		write(new File(dir, "part-r-merged"), "ZONE\t1", "BRIBERY\t1", "ASSAULT\t1", "BRIBERY\t2", "ARSON\t1");
+		List<String> expected = Arrays.asList("ARSON", "ASSAULT", "BRIBERY", "BURGLARY", "DRUNKENNESS",
+				"LARCENY/THEFT", "VANDALISM", "WARRANTS", "ZONE");
+		assertEquals(expected, DataFile.extractKeys(dir.getPath(), fs));
+		assertEquals(expected, splitAndSort(dir));
+	}
+
+	@Test
+	public void singleUnsortedFile() throws IOException {
+		File file = write(new File(folder.getRoot(), "districts.txt"), "TENDERLOIN\t1", "BAYVIEW", "MISSION\t2",
+				"BAYVIEW\t3");
+		assertEquals(Arrays.asList("BAYVIEW", "MISSION", "TENDERLOIN"), DataFile.extractKeys(file.getPath(), fs));
+	}
+
+	@Test
+	public void sequenceFilePartsAreMergedWithTextParts() throws IOException {
+		File dir = sortedOutput();
+		Path part = new Path(new File(dir, "part-r-00002").getPath());
+		SequenceFile.Writer writer = SequenceFile.createWriter(fs.getConf(), SequenceFile.Writer.file(fs.makeQualified(part)),
+				SequenceFile.Writer.keyClass(Text.class), SequenceFile.Writer.valueClass(IntWritable.class));
+		try {
+			writer.append(new Text("BURGLARY"), new IntWritable(2));
+			writer.append(new Text("FRAUD"), new IntWritable(1));
+		} finally {
+			writer.close();
+		}
+		assertEquals(Arrays.asList("ARSON", "ASSAULT", "BURGLARY", "DRUNKENNESS", "FRAUD", "LARCENY/THEFT",
+				"VANDALISM", "WARRANTS"), DataFile.extractKeys(dir.getPath(), fs));
+		assertEquals(splitAndSort(dir), DataFile.extractKeys(dir.getPath(), fs));
+	}
+
+	@Test
+	public void emptyOutputHasNoKeys() throws IOException {
+		File dir = new File(folder.getRoot(), "empty");
+		write(new File(dir, "part-r-00000"));
+		write(new File(dir, "_SUCCESS"));
+		assertEquals(0, DataFile.extractSortedKeys(dir.getPath(), fs).size());
+	}
+}
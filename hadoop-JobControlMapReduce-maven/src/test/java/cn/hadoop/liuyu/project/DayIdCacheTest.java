@@ -0,0 +1,86 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ *
+ * @function DayIdCache 在数组范围内外的读写、清空、复制以及并发写入
+ *
+ */
+public class DayIdCacheTest {
+
+	@Test
+	public void storesDaysInsideAndOutsideTheArray() {
+		DayIdCache cache = new DayIdCache();
+		int inside = CrimeDate.toEpochDay(20150101);
+		int first = CrimeDate.toEpochDay(19000101);
+		int last = CrimeDate.toEpochDay(20991231);
+		int before = CrimeDate.toEpochDay(18991231);
+		int after = CrimeDate.toEpochDay(21000101);
+		assertEquals(0, cache.get(inside));
+		cache.put(inside, 7);
+		cache.put(first, 1);
+		cache.put(last, 2);
+		cache.put(before, 3);
+		cache.put(after, 4);
+		assertEquals(7, cache.get(inside));
+		assertEquals(1, cache.get(first));
+		assertEquals(2, cache.get(last));
+		assertEquals(3, cache.get(before));
+		assertEquals(4, cache.get(after));
+		assertEquals(0, cache.get(inside + 1));
+	}
+
+	@Test
+	public void copyIsIndependentAndClearEmpties() {
+		DayIdCache cache = new DayIdCache();
+		int day = CrimeDate.toEpochDay(20130330);
+		int far = CrimeDate.toEpochDay(22000101);
+		cache.put(day, 5);
+		cache.put(far, 6);
+		DayIdCache copy = cache.copy();
+		cache.clear();
+		assertEquals(0, cache.get(day));
+		assertEquals(0, cache.get(far));
+		assertEquals(5, copy.get(day));
+		assertEquals(6, copy.get(far));
+	}
+
+	@Test
+	public void concurrentWritersAreAllVisible() throws Exception {
+		final DayIdCache cache = new DayIdCache();
+		final int first = CrimeDate.toEpochDay(20030101);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int t = 0; t < 4; t++) {
+				final int offset = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						for (int i = offset; i < 5000; i += 4) {
+							cache.put(first + i, i + 1);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(i + 1, cache.get(first + i));
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @function IncrementalState 的 watermark、批次起点、字典合并与日期分区
+ *
+ */
+public class IncrementalStateTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private IncrementalState state() throws Exception {
+		return new IncrementalState(FileSystem.getLocal(new Configuration()), new Path(folder.getRoot().getPath(), "state"));
+	}
+
+	@Test
+	public void failedBatchKeepsItsFactMark() throws Exception {
+		IncrementalState state = state();
+		assertEquals(0, state.readWatermark());
+		assertEquals(10, state.beginBatch(10));
+		//更新 watermark 之前失败，重新运行时 fact 表已经有本批写入的部分记录
+		assertEquals(10, state.beginBatch(25));
+		state.writeWatermark(20130330);
+		assertEquals(20130330, state.readWatermark());
+		assertEquals(30, state.beginBatch(30));
+		assertEquals(30, state.beginBatch(42));
+	}
+
+	@Test
+	public void mergedDictionaryKeepsIds() throws Exception {
+		IncrementalState state = state();
+		assertEquals(2, state.mergeDictionary(IncrementalState.CATEGORY_DICTIONARY, Arrays.asList("LARCENY", "ASSAULT")));
+		assertEquals(1, state.mergeDictionary(IncrementalState.CATEGORY_DICTIONARY,
+				Arrays.asList("ARSON", "LARCENY", "ASSAULT", "ARSON")));
+		FileSystem fs = FileSystem.getLocal(new Configuration());
+		assertEquals(Arrays.asList("ASSAULT", "LARCENY", "ARSON"),
+				DataFile.readKeys(state.dictionaryPath(IncrementalState.CATEGORY_DICTIONARY).toString(), fs));
+	}
+
+	@Test
+	public void newPartitionsFollowTheWatermark() throws Exception {
+		for (String name : new String[] { "dt=2013-04-01", "dt=2013-03-30", "dt=2013-03-31", "dt=2013-02-30", "other" }) {
+			folder.newFolder("crime", name);
+		}
+		Path input = FileSystem.getLocal(new Configuration()).makeQualified(new Path(folder.getRoot().getPath(), "crime"));
+		assertEquals(Arrays.asList(new Path(input, "dt=2013-03-31"), new Path(input, "dt=2013-04-01")),
+				state().newPartitions(input, 20130330));
+		assertEquals(20130401, IncrementalState.partitionDay(new Path(input, "dt=2013-04-01")));
+	}
+}
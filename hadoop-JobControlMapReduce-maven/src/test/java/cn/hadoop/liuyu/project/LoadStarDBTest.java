@@ -0,0 +1,304 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Counters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @function LoadStarDB 在嵌入式 H2 数据库（MySQL 兼容模式）中加载星型模型：
+ * 批量插入、bulk 模式、bulk 被拒绝时改为批量插入，以及加载后的 fact 表和 timeperiod 表
+ *
+ */
+public class LoadStarDBTest {
+
+	private static final String[] SCHEMA = {
+			"create table category (id int auto_increment primary key, name varchar(255) not null)",
+			"create table district (id int auto_increment primary key, name varchar(255) not null)",
+			"create table timeperiod (id int auto_increment primary key, year int, month int, week int, day int)",
+			"create table fact (id bigint auto_increment primary key, district_id int, category_id int,"
+					+ " time_id int, crimes int)" };
+
+	/**
+	 * H2 的批量导入：用 CSVREAD 读取 LoadStarDB 写出的 TSV 文件（没有列名行）
+	 */
+	private static final String H2_BULK_STATEMENT = "insert into fact ({1}) select * from csvread(''{0}'', "
+			+ "''district_id\tcategory_id\ttime_id\tcrimes'', ''charset=UTF-8 fieldSeparator=\t'')";
+
+	private static int databases = 0;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Configuration conf = new Configuration();
+
+	private FileSystem fs;
+
+	private Connection db;
+
+	private LoadStarDB loader = null;
+
+	@Before
+	public void createSchema() throws Exception {
+		fs = FileSystem.getLocal(conf);
+		conf.set(LoadStarDB.JDBC_DRIVER, "org.h2.Driver");
+		conf.set(LoadStarDB.JDBC_URL, "jdbc:h2:mem:star" + (databases++) + ";DB_CLOSE_DELAY=-1;MODE=MySQL");
+		Class.forName("org.h2.Driver");
+		db = DriverManager.getConnection(conf.get(LoadStarDB.JDBC_URL));
+		Statement s = db.createStatement();
+		for (String ddl : SCHEMA) {
+			s.execute(ddl);
+		}
+		s.close();
+	}
+
+	@After
+	public void dropDatabase() throws SQLException {
+		if (loader != null) {
+			loader.close();
+		}
+		Statement s = db.createStatement();
+		s.execute("drop all objects delete files");
+		s.close();
+		db.close();
+	}
+
+	private File write(File file, String... lines) throws IOException {
+		file.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			for (String line : lines) {
+				out.write((line + "\n").getBytes("UTF-8"));
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * @function 创建加载器：犯罪类别字典 ASSAULT=0, LARCENY=1, VANDALISM=2，犯罪区域字典 CENTRAL=0, MISSION=1
+	 */
+	private LoadStarDB loader() throws Exception {
+		File categories = write(new File(folder.getRoot(), "out1/part-r-00000"), "ASSAULT\t1", "LARCENY\t1", "VANDALISM\t1");
+		File districts = write(new File(folder.getRoot(), "out2/part-r-00000"), "CENTRAL\t1", "MISSION\t1");
+		loader = LoadStarDB.fromConfiguration(conf, categories.getParent(), districts.getParent(), null, null, null, null,
+				fs, false);
+		return loader;
+	}
+
+	/**
+	 * @return OLAP 预处理的输出目录，两个 part 文件，包含两条无法加载的记录
+	 */
+	private String olapOutput() throws IOException {
+		File dir = new File(folder.getRoot(), "out3");
+		write(new File(dir, "part-r-00000"), "2013/03/30\t0,1,5", "2013/03/30\t1,0,2", "2013/03/31\t2,1,1");
+		write(new File(dir, "part-r-00001"), "2013/04/01\t0,0,7", "2013/04/01\t9,0,1", "2013/04/01\tx,0,1",
+				"2013/04/01\t1,1,3");
+		write(new File(dir, "_SUCCESS"));
+		return dir.getPath();
+	}
+
+	/**
+	 * @return fact 表的内容：犯罪类别、犯罪区域、年、月（从0开始）、周、日、犯罪次数
+	 */
+	private List<String> facts() throws SQLException {
+		List<String> retVal = new ArrayList<String>();
+		Statement s = db.createStatement();
+		try {
+			ResultSet rs = s.executeQuery("select c.name, d.name, t.year, t.month, t.week, t.day, f.crimes from fact f"
+					+ " join category c on c.id = f.category_id join district d on d.id = f.district_id"
+					+ " join timeperiod t on t.id = f.time_id order by t.year, t.month, t.day, c.name, d.name");
+			while (rs.next()) {
+				retVal.add(rs.getString(1) + " " + rs.getString(2) + " " + rs.getInt(3) + "-" + rs.getInt(4) + " w"
+						+ rs.getInt(5) + " d" + rs.getInt(6) + " " + rs.getInt(7));
+			}
+		} finally {
+			s.close();
+		}
+		return retVal;
+	}
+
+	private int count(String table) throws SQLException {
+		Statement s = db.createStatement();
+		try {
+			ResultSet rs = s.executeQuery("select count(*) from " + table);
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			s.close();
+		}
+	}
+
+	private static final List<String> EXPECTED = Arrays.asList(
+			"ASSAULT MISSION 2013-2 w5 d30 5",
+			"LARCENY CENTRAL 2013-2 w5 d30 2",
+			"VANDALISM MISSION 2013-2 w6 d31 1",
+			"ASSAULT CENTRAL 2013-3 w1 d1 7",
+			"LARCENY MISSION 2013-3 w1 d1 3");
+
+	private void assertLoaded(Counters counters) throws SQLException {
+		assertEquals(EXPECTED, facts());
+		assertEquals(3, count("timeperiod"));
+		assertEquals(3, count("category"));
+		assertEquals(2, count("district"));
+		assertEquals(5, counters.findCounter(LoadStarDB.LoaderCounters.FACT_ROWS).getValue());
+		assertEquals(2, counters.findCounter(LoadStarDB.LoaderCounters.REJECTED_ROWS).getValue());
+	}
+
+	@Test
+	public void batchedInsertsLoadFactsAndTimeperiods() throws Exception {
+		conf.setInt(LoadStarDB.BATCH_SIZE, 2);
+		LoadStarDB loader = loader();
+		loader.processData(olapOutput(), fs);
+		assertLoaded(loader.getCounters());
+		//每个文件 2 条记录一批：3 条记录 2 批，2 条记录 1 批
+		assertEquals(3, loader.getCounters().findCounter(LoadStarDB.LoaderCounters.BATCHES).getValue());
+	}
+
+	@Test
+	public void bulkModeLoadsEachFileWithOneStatement() throws Exception {
+		conf.setBoolean(LoadStarDB.BULK, true);
+		conf.set(LoadStarDB.BULK_STATEMENT, H2_BULK_STATEMENT);
+		LoadStarDB loader = loader();
+		loader.processData(olapOutput(), fs);
+		assertLoaded(loader.getCounters());
+		assertEquals(2, loader.getCounters().findCounter(LoadStarDB.LoaderCounters.BATCHES).getValue());
+	}
+
+	/**
+	 * 默认语句是 MySQL 的 LOAD DATA，列顺序与 TSV 文件中 district_id、category_id、time_id、crimes 的顺序一致
+	 */
+	@Test
+	public void defaultBulkStatementIsMySqlLoadData() {
+		File facts = new File(folder.getRoot(), "facts.tsv");
+		assertEquals("load data local infile '" + facts.getAbsolutePath().replace('\\', '/')
+				+ "' into table fact fields terminated by '\\t' lines terminated by '\\n'"
+				+ " (district_id, category_id, time_id, crimes)",
+				LoadStarDB.formatBulkStatement(LoadStarDB.DEFAULT_BULK_STATEMENT, facts));
+	}
+
+	/**
+	 * H2 不支持 LOAD DATA LOCAL INFILE，与服务器不允许 local infile 时一样改为批量插入
+	 */
+	@Test
+	public void refusedBulkLoadFallsBackToBatchedInserts() throws Exception {
+		conf.setBoolean(LoadStarDB.BULK, true);
+		LoadStarDB loader = loader();
+		loader.processData(olapOutput(), fs);
+		assertLoaded(loader.getCounters());
+	}
+
+	@Test
+	public void resetFactsAllowsReloading() throws Exception {
+		LoadStarDB loader = loader();
+		String data = olapOutput();
+		loader.processData(data, fs);
+		loader.resetFacts();
+		assertEquals(0, count("fact"));
+		loader.processData(data, fs);
+		assertLoaded(loader.getCounters());
+	}
+
+	/**
+	 * 第二批数据中有第一批已经加载过的日期（迟到记录）：第一批的记录保留，重新运行第二批时结果不变
+	 */
+	@Test
+	public void incrementalBatchKeepsFactsOfEarlierBatches() throws Exception {
+		File categories = write(new File(folder.getRoot(), "categories.dict"), "ASSAULT", "LARCENY", "VANDALISM");
+		File districts = write(new File(folder.getRoot(), "districts.dict"), "CENTRAL", "MISSION");
+		File first = write(new File(folder.getRoot(), "batch1/part-r-00000"), "2013/03/30\t0,1,5");
+		File second = write(new File(folder.getRoot(), "batch2/part-r-00000"), "2013/03/30\t1,0,2",
+				"2013/03/31\t2,1,1");
+		loader = LoadStarDB.fromConfiguration(conf, categories.getPath(), districts.getPath(), null, null, null, null, fs,
+				true);
+		loader.processData(first.getParent(), fs);
+		loader.close();
+
+		loader = LoadStarDB.fromConfiguration(conf, categories.getPath(), districts.getPath(), null, null, null, null, fs,
+				true);
+		assertEquals(1, loader.maxFactId());
+		loader.processData(second.getParent(), fs);
+		//重新运行第二批（例如 facts 阶段重试）
+		loader.processData(second.getParent(), fs);
+		assertEquals(Arrays.asList("ASSAULT MISSION 2013-2 w5 d30 5", "LARCENY CENTRAL 2013-2 w5 d30 2",
+				"VANDALISM MISSION 2013-2 w6 d31 1"), facts());
+		assertEquals(2, count("timeperiod"));
+	}
+
+	/**
+	 * 文本文件和 SequenceFile 中不在字典范围内的维度 id（负数或超出字典）被拒绝，其余记录照常加载
+	 */
+	@Test
+	public void unknownDimensionsAreRejected() throws Exception {
+		LoadStarDB loader = loader();
+		File text = write(new File(folder.getRoot(), "text/part-r-00000"), "2013/03/30\t0,-1,1", "2013/03/30\t3,0,1",
+				"2013/03/30\t0,1,5");
+		loader.processData(text.getParent(), fs);
+		assertEquals(Arrays.asList("ASSAULT MISSION 2013-2 w5 d30 5"), facts());
+		assertEquals(2, loader.getCounters().findCounter(LoadStarDB.LoaderCounters.REJECTED_ROWS).getValue());
+
+		loader.resetFacts();
+		Path cells = new Path(new File(folder.getRoot(), "seq/part-r-00000").getPath());
+		SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(fs.makeQualified(cells)),
+				SequenceFile.Writer.keyClass(CrimeCellWritable.class), SequenceFile.Writer.valueClass(IntWritable.class));
+		try {
+			CrimeCellWritable cell = new CrimeCellWritable();
+			cell.set(20130331, 2, 1);
+			writer.append(cell, new IntWritable(1));
+			cell.set(20130331, -1, 0);
+			writer.append(cell, new IntWritable(4));
+			cell.set(20130331, 0, 2);
+			writer.append(cell, new IntWritable(4));
+		} finally {
+			writer.close();
+		}
+		loader.processData(cells.getParent().toString(), fs);
+		assertEquals(Arrays.asList("VANDALISM MISSION 2013-2 w6 d31 1"), facts());
+		assertEquals(2, loader.getCounters().findCounter(LoadStarDB.LoaderCounters.REJECTED_ROWS).getValue());
+	}
+
+	/**
+	 * 被截断的行（没有制表符）和字段过多的行被拒绝，同一文件中其余的记录照常加载
+	 */
+	@Test
+	public void linesWithoutValuesAreRejected() throws Exception {
+		LoadStarDB loader = loader();
+		File file = write(new File(folder.getRoot(), "cut/part-r-00000"), "2013/03/30\t0,1,5", "2013/03/30\t1,0,2\t9",
+				"", "2013/03/3");
+		loader.processData(file.getParent(), fs);
+		assertEquals(Arrays.asList("ASSAULT MISSION 2013-2 w5 d30 5"), facts());
+		assertEquals(3, loader.getCounters().findCounter(LoadStarDB.LoaderCounters.REJECTED_ROWS).getValue());
+	}
+
+	@Test
+	public void singleFileIsLoadedDirectly() throws Exception {
+		LoadStarDB loader = loader();
+		File file = write(new File(folder.getRoot(), "facts.txt"), "2013/03/30\t0,1,5");
+		loader.processData(file.getPath(), fs);
+		assertEquals(Arrays.asList("ASSAULT MISSION 2013-2 w5 d30 5"), facts());
+	}
+}
@@ -0,0 +1,220 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.MapContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.map.MultithreadedMapper;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @function crime.map.threads 大于 1 时报表 mapper 由 MultithreadedMapper 运行：输出和计数与单线程相同，维度字典在线程间共用
+ *
+ */
+public class MultithreadedMapTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * 收集 task 的计数器
+	 */
+	private static class CountingReporter extends StatusReporter {
+
+		final Counters counters = new Counters();
+
+		@Override
+		public Counter getCounter(Enum<?> name) {
+			return counters.findCounter(name);
+		}
+
+		@Override
+		public Counter getCounter(String group, String name) {
+			return counters.findCounter(group, name);
+		}
+
+		@Override
+		public void progress() {
+		}
+
+		@Override
+		public float getProgress() {
+			return 0;
+		}
+
+		@Override
+		public void setStatus(String status) {
+		}
+	}
+
+	private File crimes(int rows) throws IOException {
+		Random rnd = new Random(25);
+		String[] categories = { "LARCENY/THEFT", "ASSAULT", "\"FRAUD, FORGERY\"", "VANDALISM" };
+		String[] districts = { "MISSION", "TENDERLOIN", "CENTRAL" };
+		File retVal = folder.newFile("crime.csv");
+		OutputStream out = new FileOutputStream(retVal);
+		try {
+			out.write("IncidntNum,Category,Descript,DayOfWeek,Date,Time,PdDistrict,Resolution,Address,X,Y,Location\n"
+					.getBytes("UTF-8"));
+			for (int i = 0; i < rows; i++) {
+				String date = (1 + rnd.nextInt(12)) + "/" + (1 + rnd.nextInt(28)) + "/2013 12:00:00 AM";
+				if (i % 97 == 0) {
+					date = "13/40/2013";
+				}
+				String row = i % 101 == 0 ? i + ",TRUNCATED" : i + "," + categories[rnd.nextInt(categories.length)]
+						+ ",\"DESC\n" + i + "\",Monday," + date + ",12:00," + districts[rnd.nextInt(districts.length)]
+						+ ",NONE,ADDR,1,2,\"(1, 2)\"";
+				out.write((row + "\n").getBytes("UTF-8"));
+			}
+		} finally {
+			out.close();
+		}
+		return retVal;
+	}
+
+	/**
+	 * @function 在一个 map task 中运行 mapper，读取整个文件
+	 * @return 排序后的输出
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static List<String> run(Mapper mapper, Configuration conf, File file, CountingReporter reporter)
+			throws IOException, InterruptedException {
+		final List<String> retVal = new ArrayList<String>();
+		RecordWriter<Text, WeekCountsWritable> writer = new RecordWriter<Text, WeekCountsWritable>() {
+			@Override
+			public synchronized void write(Text key, WeekCountsWritable value) {
+				retVal.add(key + "\t" + value);
+			}
+
+			@Override
+			public void close(TaskAttemptContext context) {
+			}
+		};
+		TaskAttemptID id = new TaskAttemptID("crime", 1, TaskType.MAP, 0, 0);
+		FileSplit split = new FileSplit(new Path(file.getAbsolutePath()), 0, file.length(), null);
+		CrimeCsvRecordReader reader = new CrimeCsvRecordReader();
+		reader.initialize(split, new TaskAttemptContextImpl(conf, id, reporter));
+		try {
+			MapContext<LongWritable, Text, Text, WeekCountsWritable> context = new MapContextImpl<LongWritable, Text, Text, WeekCountsWritable>(
+					conf, id, reader, writer, null, reporter, split);
+			mapper.run(new WrappedMapper().getMapContext(context));
+		} finally {
+			reader.close();
+		}
+		Collections.sort(retVal);
+		return retVal;
+	}
+
+	@Test
+	public void configureMapperUsesThreadsAndVcores() throws Exception {
+		Job job = Job.getInstance(new Configuration());
+		MapReduceJobBase.configureMapper(job, SanFranciscoCrime.CategoryAndDistrictMapByDate.class);
+		assertSame(SanFranciscoCrime.CategoryAndDistrictMapByDate.class, job.getMapperClass());
+
+		job = Job.getInstance(new Configuration());
+		job.getConfiguration().setInt(MapReduceJobBase.MAP_THREADS, 4);
+		MapReduceJobBase.configureMapper(job, SanFranciscoCrime.CategoryAndDistrictMapByDate.class);
+		assertSame(MultithreadedMapper.class, job.getMapperClass());
+		assertSame(SanFranciscoCrime.CategoryAndDistrictMapByDate.class, MultithreadedMapper.getMapperClass(job));
+		assertEquals(4, MultithreadedMapper.getNumberOfThreads(job));
+		assertEquals(4, job.getConfiguration().getInt(MRJobConfig.MAP_CPU_VCORES, 1));
+	}
+
+	@Test
+	public void threadsProduceSameOutputAndCounters() throws Exception {
+		File file = crimes(5000);
+		Configuration conf = new Configuration();
+
+		CountingReporter single = new CountingReporter();
+		List<String> expected = run(new SanFranciscoCrime.CategoryAndDistrictMapByDate(), conf, file, single);
+
+		Job job = Job.getInstance(conf);
+		MultithreadedMapper.setMapperClass(job, SanFranciscoCrime.CategoryAndDistrictMapByDate.class);
+		MultithreadedMapper.setNumberOfThreads(job, 4);
+		CountingReporter multi = new CountingReporter();
+		List<String> actual = run(new MultithreadedMapper<LongWritable, Text, Text, WeekCountsWritable>(),
+				job.getConfiguration(), file, multi);
+
+		assertEquals(expected, actual);
+		for (CrimeCounters counter : CrimeCounters.values()) {
+			assertEquals(counter.name(), single.getCounter(counter).getValue(), multi.getCounter(counter).getValue());
+		}
+		assertEquals(1, multi.getCounter(CrimeCounters.SKIPPED_HEADER).getValue());
+		assertTrue(multi.getCounter(CrimeCounters.BAD_DATE).getValue() > 0);
+		assertTrue(multi.getCounter(CrimeCounters.MALFORMED).getValue() > 0);
+		assertEquals(2 * multi.getCounter(CrimeCounters.PARSED).getValue(), actual.size());
+	}
+
+	@Test
+	public void dictionaryIsLoadedOncePerJob() throws Exception {
+		File keys = folder.newFile("category.txt");
+		OutputStream out = new FileOutputStream(keys);
+		try {
+			out.write("ASSAULT\t3\nLARCENY/THEFT\t5\n".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		Job job = Job.getInstance(new Configuration());
+		DataFile.addDictionary(job, keys.getAbsolutePath(), "category");
+		final JobContext context = new JobContextImpl(job.getConfiguration(), new JobID("crime", 25));
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<DimensionDictionary>> futures = new ArrayList<Future<DimensionDictionary>>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(executor.submit(new Callable<DimensionDictionary>() {
+					public DimensionDictionary call() throws IOException {
+						return DataFile.loadDictionary(context, "category");
+					}
+				}));
+			}
+			DimensionDictionary first = futures.get(0).get();
+			assertEquals(2, first.size());
+			for (Future<DimensionDictionary> future : futures) {
+				assertSame(first, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		JobContext other = new JobContextImpl(job.getConfiguration(), new JobID("crime", 26));
+		assertNotSame(DataFile.loadDictionary(context, "category"), DataFile.loadDictionary(other, "category"));
+	}
+}
@@ -0,0 +1,116 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ *
+ * @function PartitionPlan 的热点 key 拆分、负载分配、序列化，以及 SkewAwarePartitioner 按方案分配
+ *
+ */
+public class PartitionPlanTest {
+
+	private static Map<Text, Long> weights(Object... keyAndWeight) {
+		Map<Text, Long> retVal = new HashMap<Text, Long>();
+		for (int i = 0; i < keyAndWeight.length; i += 2) {
+			retVal.put(new Text((String) keyAndWeight[i]), ((Number) keyAndWeight[i + 1]).longValue());
+		}
+		return retVal;
+	}
+
+	@Test
+	public void hotKeyIsSplitAcrossReducers() {
+		//总权重 1000，4 个 reducer 的平均负载为 250，LARCENY 拆分到 ceil(700 / 250) = 3 个 reducer
+		PartitionPlan plan = PartitionPlan.build(weights("LARCENY", 700, "ASSAULT", 150, "FRAUD", 100, "ARSON", 50), 4,
+				1.0, 100);
+		int[] hot = plan.get(new Text("LARCENY"));
+		assertEquals(3, hot.length);
+		assertEquals(3, toSet(hot).size());
+		assertTrue(plan.isSplit(new Text("LARCENY")));
+		assertFalse(plan.isSplit(new Text("ASSAULT")));
+		assertEquals(1, plan.splitKeys());
+		//其余的 key 放在负载最小的 reducer，即没有分到 LARCENY 的那一个
+		Set<Integer> rest = new HashSet<Integer>();
+		for (int p = 0; p < 4; p++) {
+			rest.add(p);
+		}
+		rest.removeAll(toSet(hot));
+		assertArrayEquals(new int[] { rest.iterator().next() }, plan.get(new Text("ASSAULT")));
+	}
+
+	@Test
+	public void balancedWeightsAreNotSplit() {
+		PartitionPlan plan = PartitionPlan.build(weights("A", 10, "B", 10, "C", 10, "D", 10), 4, 1.0, 100);
+		Set<Integer> used = new HashSet<Integer>();
+		for (String key : new String[] { "A", "B", "C", "D" }) {
+			int[] partitions = plan.get(new Text(key));
+			assertEquals(1, partitions.length);
+			used.add(partitions[0]);
+		}
+		assertEquals(4, used.size());
+		assertEquals(0, plan.splitKeys());
+	}
+
+	@Test
+	public void keysBeyondLimitAreLeftToHashing() {
+		PartitionPlan plan = PartitionPlan.build(weights("A", 30, "B", 20, "C", 10), 2, 10.0, 2);
+		assertEquals(1, plan.get(new Text("A")).length);
+		assertEquals(1, plan.get(new Text("B")).length);
+		assertNull(plan.get(new Text("C")));
+	}
+
+	@Test
+	public void singleReducerHasNoPlan() {
+		PartitionPlan plan = PartitionPlan.build(weights("A", 30), 1, 1.0, 100);
+		assertEquals(1, plan.getNumPartitions());
+		assertNull(plan.get(new Text("A")));
+	}
+
+	@Test
+	public void storedPlanDrivesPartitioner() throws IOException {
+		Configuration conf = new Configuration();
+		SkewAwarePartitioner<Object> partitioner = new SkewAwarePartitioner<Object>();
+		partitioner.setConf(conf);
+		Text cold = new Text("UNKNOWN");
+		assertEquals(PartitionPlan.hashPartition(cold, 4), partitioner.getPartition(cold, null, 4));
+
+		PartitionPlan plan = PartitionPlan.build(weights("LARCENY", 700, "ASSAULT", 150, "FRAUD", 100, "ARSON", 50), 4,
+				1.0, 100);
+		PartitionPlan.store(conf, plan);
+		PartitionPlan loaded = PartitionPlan.load(conf);
+		assertArrayEquals(plan.get(new Text("LARCENY")), loaded.get(new Text("LARCENY")));
+		assertArrayEquals(plan.get(new Text("FRAUD")), loaded.get(new Text("FRAUD")));
+
+		partitioner.setConf(conf);
+		Text hot = new Text("LARCENY");
+		Set<Integer> seen = new HashSet<Integer>();
+		for (int i = 0; i < 6; i++) {
+			seen.add(partitioner.getPartition(hot, null, 4));
+		}
+		assertEquals(toSet(plan.get(hot)), seen);
+		assertEquals(plan.get(new Text("FRAUD"))[0], partitioner.getPartition(new Text("FRAUD"), null, 4));
+		//reducer 个数与方案不同时方案无效
+		assertEquals(PartitionPlan.hashPartition(hot, 3), partitioner.getPartition(hot, null, 3));
+	}
+
+	private static Set<Integer> toSet(int[] values) {
+		Set<Integer> retVal = new HashSet<Integer>();
+		for (int v : values) {
+			retVal.add(v);
+		}
+		return retVal;
+	}
+}
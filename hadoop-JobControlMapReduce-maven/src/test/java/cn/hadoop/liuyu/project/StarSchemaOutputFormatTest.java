@@ -0,0 +1,209 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @function StarSchemaOutputFormat 在嵌入式 H2 数据库（MySQL 兼容模式）中写入 fact 表：
+ * 重新运行同一天的 task 不会重复写入，插入线程失败时 write/close 抛出 IOException 而不是一直等待
+ *
+ */
+public class StarSchemaOutputFormatTest {
+
+	private static final String[] SCHEMA = {
+			"create table category (id int auto_increment primary key, name varchar(255) not null)",
+			"create table district (id int auto_increment primary key, name varchar(255) not null)",
+			"create table timeperiod (id int auto_increment primary key, year int, month int, week int, day int)",
+			"create table fact (id bigint auto_increment primary key, district_id int, category_id int,"
+					+ " time_id int, crimes int)",
+			"insert into category (name) values ('ASSAULT'), ('LARCENY')",
+			"insert into district (name) values ('CENTRAL'), ('MISSION')" };
+
+	private static int databases = 0;
+
+	private final Configuration conf = new Configuration();
+
+	private Connection db;
+
+	private TaskAttemptContext context;
+
+	@Before
+	public void createSchema() throws Exception {
+		conf.set(LoadStarDB.JDBC_DRIVER, "org.h2.Driver");
+		conf.set(LoadStarDB.JDBC_URL, "jdbc:h2:mem:starout" + (databases++) + ";DB_CLOSE_DELAY=-1;MODE=MySQL");
+		//字典 id 0、1 对应数据库主键 1、2
+		StarSchemaOutputFormat.setDimensionIds(conf, StarSchemaOutputFormat.CATEGORY_IDS, new int[] { 1, 2 });
+		StarSchemaOutputFormat.setDimensionIds(conf, StarSchemaOutputFormat.DISTRICT_IDS, new int[] { 1, 2 });
+		Class.forName("org.h2.Driver");
+		db = DriverManager.getConnection(conf.get(LoadStarDB.JDBC_URL));
+		execute(SCHEMA);
+	}
+
+	@After
+	public void dropDatabase() throws SQLException {
+		execute("drop all objects delete files");
+		db.close();
+	}
+
+	private void execute(String... sql) throws SQLException {
+		Statement s = db.createStatement();
+		try {
+			for (String statement : sql) {
+				s.execute(statement);
+			}
+		} finally {
+			s.close();
+		}
+	}
+
+	private RecordWriter<CrimeCellWritable, IntWritable> writer() throws Exception {
+		context = new TaskAttemptContextImpl(conf, new TaskAttemptID("crime", 1, TaskType.REDUCE, 0, 0));
+		return new StarSchemaOutputFormat().getRecordWriter(context);
+	}
+
+	/**
+	 * @function 写入一天的单元格，cells 依次为犯罪类别id、犯罪区域id、犯罪次数
+	 */
+	private static void write(RecordWriter<CrimeCellWritable, IntWritable> writer, int day, int... cells)
+			throws IOException, InterruptedException {
+		CrimeCellWritable key = new CrimeCellWritable();
+		IntWritable value = new IntWritable();
+		for (int i = 0; i < cells.length; i += 3) {
+			key.set(day, cells[i], cells[i + 1]);
+			value.set(cells[i + 2]);
+			writer.write(key, value);
+		}
+	}
+
+	/**
+	 * @return fact 表的内容：犯罪类别、犯罪区域、年-月（从0开始）-日、犯罪次数
+	 */
+	private List<String> facts() throws SQLException {
+		List<String> retVal = new ArrayList<String>();
+		Statement s = db.createStatement();
+		try {
+			ResultSet rs = s.executeQuery("select c.name, d.name, t.year, t.month, t.day, f.crimes from fact f"
+					+ " join category c on c.id = f.category_id join district d on d.id = f.district_id"
+					+ " join timeperiod t on t.id = f.time_id order by t.year, t.month, t.day, c.name, d.name, f.crimes");
+			while (rs.next()) {
+				retVal.add(rs.getString(1) + " " + rs.getString(2) + " " + rs.getInt(3) + "-" + rs.getInt(4) + "-"
+						+ rs.getInt(5) + " " + rs.getInt(6));
+			}
+		} finally {
+			s.close();
+		}
+		return retVal;
+	}
+
+	private long maxFactId() throws SQLException {
+		Statement s = db.createStatement();
+		try {
+			ResultSet rs = s.executeQuery("select coalesce(max(id), 0) from fact");
+			rs.next();
+			return rs.getLong(1);
+		} finally {
+			s.close();
+		}
+	}
+
+	private int count(String table) throws SQLException {
+		Statement s = db.createStatement();
+		try {
+			ResultSet rs = s.executeQuery("select count(*) from " + table);
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			s.close();
+		}
+	}
+
+	@Test
+	public void writesCellsThroughTheInserterThreads() throws Exception {
+		conf.setInt(LoadStarDB.BATCH_SIZE, 2);
+		conf.setInt(StarSchemaOutputFormat.CONNECTIONS, 2);
+		RecordWriter<CrimeCellWritable, IntWritable> writer = writer();
+		write(writer, 20130330, 0, 0, 5, 0, 1, 1, 1, 1, 2);
+		write(writer, 20130401, 1, 0, 7);
+		writer.close(context);
+		assertEquals(Arrays.asList("ASSAULT CENTRAL 2013-2-30 5", "ASSAULT MISSION 2013-2-30 1",
+				"LARCENY MISSION 2013-2-30 2", "LARCENY CENTRAL 2013-3-1 7"), facts());
+	}
+
+	/**
+	 * 上一批数据已经写入 2013-03-30 的一条记录（主键不大于 crime.star.fact.mark，保留）；
+	 * 本批的 task 写入两次（例如 task 失败后重新运行），只保留最后一次的结果
+	 */
+	@Test
+	public void rerunningADayDoesNotDuplicateFacts() throws Exception {
+		RecordWriter<CrimeCellWritable, IntWritable> writer = writer();
+		write(writer, 20130330, 1, 1, 4);
+		writer.close(context);
+		conf.setLong(StarSchemaOutputFormat.FACT_MARK, maxFactId());
+
+		for (int run = 0; run < 2; run++) {
+			writer = writer();
+			write(writer, 20130330, 0, 0, 5, 0, 1, 1);
+			write(writer, 20130331, 1, 0, 3);
+			writer.close(context);
+		}
+		assertEquals(Arrays.asList("ASSAULT CENTRAL 2013-2-30 5", "ASSAULT MISSION 2013-2-30 1",
+				"LARCENY MISSION 2013-2-30 4", "LARCENY CENTRAL 2013-2-31 3"), facts());
+		assertEquals(2, count("timeperiod"));
+	}
+
+	/**
+	 * 插入线程失败后不再消费队列：reducer 在队列满时（或 close 时）得到 IOException
+	 */
+	@Test(timeout = 60000)
+	public void failedInsertSurfacesAsIOException() throws Exception {
+		execute("alter table fact add constraint positive_crimes check (crimes > 0)");
+		conf.setInt(LoadStarDB.BATCH_SIZE, 1);
+		conf.setInt(StarSchemaOutputFormat.QUEUE_BATCHES, 1);
+		RecordWriter<CrimeCellWritable, IntWritable> writer = writer();
+		try {
+			for (int i = 0; i < 10; i++) {
+				write(writer, 20130330, 0, 0, 0);
+			}
+			writer.close(context);
+			fail("insert failure was not reported");
+		} catch (IOException e) {
+			assertEquals("Fact insert failed", e.getMessage());
+		}
+	}
+
+	@Test
+	public void unknownDimensionIsRejected() throws Exception {
+		RecordWriter<CrimeCellWritable, IntWritable> writer = writer();
+		try {
+			write(writer, 20130330, 2, 0, 1);
+			fail("category 2 has no primary key");
+		} catch (IOException e) {
+			//期望的异常
+		} finally {
+			writer.close(context);
+		}
+		assertEquals(0, count("fact"));
+	}
+}
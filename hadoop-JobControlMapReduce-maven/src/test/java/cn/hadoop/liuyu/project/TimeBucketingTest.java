@@ -0,0 +1,116 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+/**
+ *
+ * @function TimeBucketing 各种划分方式的时段编号、时段个数、日期范围和报表格式
+ *
+ */
+public class TimeBucketingTest {
+
+	@Test
+	public void weekOfMonthIsTheDefault() {
+		TimeBucketing bucketing = TimeBucketing.fromConfiguration(new Configuration());
+		assertEquals(TimeBucketing.Mode.WEEK_OF_MONTH, bucketing.getMode());
+		assertEquals(WeekCountsWritable.BUCKETS, bucketing.buckets());
+		assertFalse(bucketing.needsTime());
+		for (int date : new int[] { 20130101, 20130330, 20131231, 20150201 }) {
+			assertEquals(CrimeDate.weekBucket(date), bucketing.bucket(date, -1));
+		}
+		WeekCountsWritable counts = new WeekCountsWritable(bucketing.buckets());
+		counts.set(bucketing.bucket(20130105, -1));
+		assertEquals(counts.toReport(), bucketing.report(counts));
+	}
+
+	/**
+	 * 2013-01-01 是礼拜二，第 0 周从 2012-12-31（礼拜一）开始
+	 */
+	@Test
+	public void mondayWeeksCountFromTheRangeStart() {
+		Configuration conf = new Configuration();
+		conf.set(TimeBucketing.MODE, "monday_week");
+		conf.setInt(TimeBucketing.FROM, 20130101);
+		conf.setInt(TimeBucketing.TO, 20130131);
+		TimeBucketing bucketing = TimeBucketing.fromConfiguration(conf);
+		assertEquals(TimeBucketing.Mode.MONDAY_WEEK, bucketing.getMode());
+		assertEquals(5, bucketing.buckets());
+		assertEquals(0, bucketing.bucket(20130101, -1));
+		assertEquals(0, bucketing.bucket(20130106, -1));
+		assertEquals(1, bucketing.bucket(20130107, -1));
+		assertEquals(4, bucketing.bucket(20130131, -1));
+		assertEquals(-1, bucketing.bucket(20121231, -1));
+		assertEquals(-1, bucketing.bucket(20130201, -1));
+	}
+
+	@Test
+	public void mondayWeeksBeforeTheEpoch() {
+		//1969-12-29 是礼拜一，1970-01-04 是礼拜日
+		TimeBucketing bucketing = new TimeBucketing(TimeBucketing.Mode.MONDAY_WEEK, 19691222, 19700105);
+		assertEquals(3, bucketing.buckets());
+		assertEquals(0, bucketing.bucket(19691228, -1));
+		assertEquals(1, bucketing.bucket(19691229, -1));
+		assertEquals(1, bucketing.bucket(19700104, -1));
+		assertEquals(2, bucketing.bucket(19700105, -1));
+	}
+
+	@Test
+	public void daysAndMonths() {
+		TimeBucketing days = new TimeBucketing(TimeBucketing.Mode.DAY, 20120228, 20120301);
+		assertEquals(3, days.buckets());
+		assertEquals(1, days.bucket(20120229, -1));
+		assertEquals(2, days.bucket(20120301, -1));
+
+		TimeBucketing months = new TimeBucketing(TimeBucketing.Mode.MONTH, 20121115, 20130210);
+		assertEquals(4, months.buckets());
+		assertEquals(0, months.bucket(20121115, -1));
+		assertEquals(2, months.bucket(20130131, -1));
+		assertEquals(3, months.bucket(20130210, -1));
+		assertEquals(-1, months.bucket(20121114, -1));
+
+		WeekCountsWritable counts = new WeekCountsWritable(months.buckets());
+		counts.set(months.bucket(20121201, -1));
+		assertEquals("0,1,0,0", months.report(counts));
+	}
+
+	@Test
+	public void hoursOfWeekStartOnMonday() {
+		TimeBucketing bucketing = new TimeBucketing(TimeBucketing.Mode.HOUR_OF_WEEK, CrimeDate.INVALID,
+				CrimeDate.INVALID);
+		assertTrue(bucketing.needsTime());
+		assertEquals(168, bucketing.buckets());
+		assertEquals(0, bucketing.bucket(20130107, 0));
+		assertEquals(24 + 13, bucketing.bucket(20130108, 13));
+		assertEquals(167, bucketing.bucket(20130113, 23));
+		assertEquals(-1, bucketing.bucket(20130113, 24));
+		assertEquals(-1, bucketing.bucket(20130113, -1));
+	}
+
+	@Test
+	public void invalidRangesAreRejected() {
+		try {
+			new TimeBucketing(TimeBucketing.Mode.DAY, CrimeDate.INVALID, CrimeDate.INVALID);
+			fail("DAY needs a range");
+		} catch (IllegalArgumentException e) {
+			//期望的异常
+		}
+		try {
+			new TimeBucketing(TimeBucketing.Mode.MONTH, 20130201, 20130101);
+			fail("from after to");
+		} catch (IllegalArgumentException e) {
+			//期望的异常
+		}
+		try {
+			new TimeBucketing(TimeBucketing.Mode.DAY, 19000101, 20991231);
+			fail("too many buckets");
+		} catch (IllegalArgumentException e) {
+			//期望的异常
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package cn.hadoop.liuyu.project;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ *
+ * @function WeekCountsWritable 的计数、下标范围扩展、序列化，以及与原有 CrimeReducerByWeek 相同的报表格式
+ *
+ */
+public class WeekCountsWritableTest {
+
+	private static WeekCountsWritable roundTrip(WeekCountsWritable counts, WeekCountsWritable target)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		counts.write(out);
+		out.close();
+		target.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		return target;
+	}
+
+	@Test
+	public void growsBeyondTheInitialSize() throws IOException {
+		WeekCountsWritable counts = new WeekCountsWritable(4);
+		counts.set(100);
+		assertEquals(1, counts.get(100));
+		assertEquals(0, counts.get(5000));
+
+		WeekCountsWritable sum = new WeekCountsWritable(2);
+		sum.add(counts);
+		WeekCountsWritable one = new WeekCountsWritable(2);
+		one.set(1);
+		sum.add(one);
+		sum.add(one);
+		sum.add(new WeekCountsWritable());
+		assertEquals(2, sum.get(1));
+		assertEquals(1, sum.get(100));
+		assertEquals(3, sum.total());
+
+		//反序列化到较小的对象时同样扩展
+		WeekCountsWritable copy = roundTrip(sum, new WeekCountsWritable(1));
+		assertEquals(2, copy.get(1));
+		assertEquals(1, copy.get(100));
+		assertEquals(3, copy.total());
+	}
+
+	@Test
+	public void readFieldsReplacesPreviousCounts() throws IOException {
+		WeekCountsWritable target = new WeekCountsWritable();
+		target.set(40);
+		WeekCountsWritable counts = new WeekCountsWritable();
+		counts.set(3);
+		roundTrip(counts, target);
+		assertEquals(0, target.get(40));
+		assertEquals(1, target.get(3));
+		assertEquals(1, target.total());
+
+		roundTrip(new WeekCountsWritable(), target);
+		assertEquals(0, target.total());
+		assertEquals("0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0", target.toReport());
+	}
+
+	@Test
+	public void fixedColumnReport() {
+		WeekCountsWritable counts = new WeekCountsWritable(5);
+		counts.set(4);
+		assertEquals("0,0,0,0,1", counts.toReport(5));
+		assertEquals("0,0", counts.toReport(2));
+	}
+
+	/**
+	 * 原有的 CrimeReducerByWeek：HashMap 中预先放入 0-15 周时段，再累加每个事件的 month * 5 + WEEK_OF_MONTH
+	 * 时段小于 32 时 HashMap 按 key 的顺序遍历
+	 */
+	private static String legacyReport(int[] dates) {
+		Map<Integer, Integer> weekSummary = new HashMap<Integer, Integer>();
+		for (int i = 0; i < 16; i++) {
+			weekSummary.put(i, 0);
+		}
+		for (int date : dates) {
+			int bucket = CrimeDate.weekBucket(date);
+			Integer n = weekSummary.get(bucket);
+			weekSummary.put(bucket, n == null ? 1 : n + 1);
+		}
+		StringBuilder rpt = new StringBuilder();
+		for (int week : weekSummary.keySet()) {
+			if (rpt.length() > 0) {
+				rpt.append(",");
+			}
+			rpt.append(weekSummary.get(week));
+		}
+		return rpt.toString();
+	}
+
+	@Test
+	public void reportMatchesLegacyLayout() {
+		int[][] cases = { {}, { 20130101 }, { 20130101, 20130101, 20130330, 20130215 },
+				{ 20130401, 20130530, 20130102 }, { 20130615, 20130301, 20130301 } };
+		for (int[] dates : cases) {
+			WeekCountsWritable sum = new WeekCountsWritable();
+			WeekCountsWritable one = new WeekCountsWritable();
+			for (int date : dates) {
+				one.set(CrimeDate.weekBucket(date));
+				sum.add(one);
+			}
+			assertEquals(legacyReport(dates), sum.toReport());
+		}
+	}
+}